@@ -0,0 +1,51 @@
+package main.java;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// hashing of whole token lists, and of single tokens, as found in the synthetic labels
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HasherBenchmark {
+    protected Hasher hasher;
+    protected List<List<String>> tokenLists;
+    protected List<String> tokens;
+
+    @Setup
+    public void setup() {
+        SyntheticDataset dataset = new SyntheticDataset(42);
+        this.hasher = new Hasher();
+        this.tokenLists = new ArrayList<>();
+        this.tokens = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            List<String> tokens = new ArrayList<>(Arrays.asList(dataset.label(dataset.language()).split("[^\\p{IsDigit}\\p{IsLetter}]+")));
+            Collections.sort(tokens);
+            this.tokenLists.add(tokens);
+            this.tokens.addAll(tokens);
+        }
+    }
+
+    @Benchmark
+    public void hash(Blackhole blackhole) {
+        for (List<String> tokens : this.tokenLists) {
+            blackhole.consume(this.hasher.hash(tokens));
+        }
+    }
+
+    @Benchmark
+    public void hashToken(Blackhole blackhole) {
+        for (String token : this.tokens) {
+            blackhole.consume(this.hasher.hashToken(token));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package main.java;
+
+import org.apache.jena.graph.Triple;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// serializes the hypermedia controls of the synthetic dataset, after fragmenting it once
+// the controls are kept in memory, so this doesn't touch the disk
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HypermediaBenchmark {
+    @Param({"20000"})
+    public int subjects;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    protected Path outDirPath;
+    protected PrefixCounters counters;
+    protected FragmentCapacity capacity;
+    protected FragmentSink sink;
+
+    @Setup
+    public void setup() throws IOException {
+        this.outDirPath = Files.createTempDirectory("hypermedia-");
+        this.counters = LongCounterTable.create("heap");
+        this.capacity = new FragmentCapacity(0, 0, LongCounterTable.create("heap"));
+        Budget handles = new Budget(1024);
+        Budget memory = new Budget(256L * 1024 * 1024);
+        TaskMetrics metrics = new TaskMetrics("benchmark");
+        this.sink = new FragmentSink(
+                SyntheticDataset.properties(),
+                () -> FragmentOutput.create("streams", this.outDirPath, ".ttl", handles, memory, path -> {}, null, null, metrics),
+                this.outDirPath,
+                new Hasher(),
+                ".ttl",
+                this.counters,
+                this.capacity,
+                metrics
+        );
+
+        this.sink.start();
+        for (Triple triple : new SyntheticDataset(42).triples(this.subjects)) {
+            this.sink.triple(triple);
+        }
+        this.sink.finish();
+        this.sink.close(hash -> null);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Main.deleteDirectoryRecursive(this.outDirPath);
+    }
+
+    @Benchmark
+    public HypermediaControls addHypermedia() throws IOException {
+        HypermediaControls controls = new HypermediaControls(
+                SyntheticDataset.properties(),
+                this.counters,
+                this.capacity,
+                this.sink.getChildIndex(),
+                new Hasher(),
+                this.outDirPath,
+                this.sink.getCharSet(),
+                ".ttl",
+                this.threads
+        );
+        controls.addHypermedia("https://example.org/benchmark/");
+        return controls;
+    }
+}
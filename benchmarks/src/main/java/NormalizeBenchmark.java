@@ -0,0 +1,33 @@
+package main.java;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// lower casing and unicode normalization of the synthetic labels, in all of their languages
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NormalizeBenchmark {
+    protected String[] labels;
+
+    @Setup
+    public void setup() {
+        SyntheticDataset dataset = new SyntheticDataset(42);
+        this.labels = new String[1000];
+        for (int i = 0; i < this.labels.length; i++) {
+            this.labels[i] = dataset.label(dataset.language());
+        }
+    }
+
+    @Benchmark
+    public void normalize(Blackhole blackhole) {
+        for (String label : this.labels) {
+            blackhole.consume(FragmentSink.normalize(label));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package main.java;
+
+import org.apache.jena.graph.Triple;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// fragment selection of the synthetic labels, starting from empty counters each time
+// unlike SubstringBenchmark, this goes through the sink, so it includes the bookkeeping of the hypermedia controls
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SelectFragmentsBenchmark {
+    @Param({"10000"})
+    public int subjects;
+
+    protected List<List<String>> values;
+    protected Path outDirPath;
+
+    @Setup
+    public void setup() throws IOException {
+        List<Triple> triples = new SyntheticDataset(42).triples(this.subjects);
+        this.values = new ArrayList<>();
+        for (Triple triple : triples) {
+            if (SyntheticDataset.properties().contains(triple.getPredicate())) {
+                this.values.add(List.of(FragmentSink.normalize(triple.getObject().getLiteralLexicalForm())));
+            }
+        }
+        this.outDirPath = Files.createTempDirectory("select-");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Main.deleteDirectoryRecursive(this.outDirPath);
+    }
+
+    @Benchmark
+    public void selectFragments(Blackhole blackhole) throws IOException {
+        FragmentSink sink = new FragmentSink(
+                SyntheticDataset.properties(),
+                () -> null,
+                this.outDirPath,
+                new Hasher(),
+                ".ttl",
+                LongCounterTable.create("heap"),
+                new FragmentCapacity(0, 0, LongCounterTable.create("heap")),
+                new TaskMetrics("benchmark")
+        );
+        for (List<String> values : this.values) {
+            blackhole.consume(sink.selectFragments(values));
+        }
+    }
+}
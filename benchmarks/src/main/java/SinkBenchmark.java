@@ -0,0 +1,79 @@
+package main.java;
+
+import org.apache.jena.graph.Triple;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// end-to-end throughput of a sink, from triples to fragment files on disk (without the hypermedia controls)
+// reported in triples per second, as the `triples` counter
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SinkBenchmark {
+    @Param({"20000"})
+    public int subjects;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"streams", "sorted"})
+    public String output;
+
+    protected List<Triple> triples;
+    protected Path outDirPath;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long triples;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.triples = new SyntheticDataset(42).triples(this.subjects);
+    }
+
+    @Setup(Level.Invocation)
+    public void createDirectory() throws IOException {
+        this.outDirPath = Files.createTempDirectory("sink-");
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteDirectory() throws IOException {
+        Main.deleteDirectoryRecursive(this.outDirPath);
+    }
+
+    @Benchmark
+    public void sink(Counters counters) throws IOException {
+        Budget handles = new Budget(1024);
+        Budget memory = new Budget(256L * 1024 * 1024);
+        TaskMetrics metrics = new TaskMetrics("benchmark");
+        FragmentOutput.Factory outputs = () -> FragmentOutput.create(
+                this.output, this.outDirPath, ".ttl", handles, memory, path -> {}, null, null, metrics);
+
+        FragmentSink sink;
+        if (this.threads > 1) {
+            sink = new PipelinedFragmentSink(SyntheticDataset.properties(), outputs, this.outDirPath, new Hasher(), ".ttl",
+                    LongCounterTable.create("heap"), new FragmentCapacity(0, 0, LongCounterTable.create("heap")), metrics, this.threads);
+        } else {
+            sink = new FragmentSink(SyntheticDataset.properties(), outputs, this.outDirPath, new Hasher(), ".ttl",
+                    LongCounterTable.create("heap"), new FragmentCapacity(0, 0, LongCounterTable.create("heap")), metrics);
+        }
+
+        sink.start();
+        for (Triple triple : this.triples) {
+            sink.triple(triple);
+        }
+        sink.finish();
+        sink.close(hash -> null);
+        counters.triples += this.triples.size();
+    }
+}
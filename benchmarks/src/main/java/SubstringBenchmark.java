@@ -0,0 +1,55 @@
+package main.java;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// compares the single pass substring enumeration with the original substring/split/hash loop
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubstringBenchmark {
+    @Param({"16", "64", "256"})
+    public int labelLength;
+
+    protected String[] labels;
+
+    @Setup
+    public void setup() {
+        // a small alphabet, so that a lot of prefixes fill up and the enumeration has to go deeper
+        Random random = new Random(42);
+        String alphabet = "abcdeé-";
+        this.labels = new String[1000];
+        for (int i = 0; i < this.labels.length; i++) {
+            StringBuilder label = new StringBuilder();
+            while (label.length() < this.labelLength) {
+                if (label.length() > 0 && random.nextInt(6) == 0) {
+                    label.append(' ');
+                }
+                label.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            this.labels[i] = label.toString();
+        }
+    }
+
+    @Benchmark
+    public void singlePass(Blackhole blackhole) {
+        SubstringEnumerator enumerator = new SubstringEnumerator(LongCounterTable.create("heap"), new FragmentCapacity(0, 0, LongCounterTable.create("heap")), new Hasher());
+        for (String label : this.labels) {
+            blackhole.consume(enumerator.select(label));
+        }
+    }
+
+    @Benchmark
+    public void legacy(Blackhole blackhole) {
+        SubstringEnumerator enumerator = new SubstringEnumerator(LongCounterTable.create("heap"), new FragmentCapacity(0, 0, LongCounterTable.create("heap")), new Hasher());
+        for (String label : this.labels) {
+            blackhole.consume(enumerator.selectLegacy(label));
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package main.java;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// seeded generator of SKOS and schema.org-like concepts with multilingual labels
+// labels are built from a per-language vocabulary with a skewed (Zipf-like) word frequency,
+// so prefixes are shared the way they are in real thesauri; the same seed always gives the same data
+// run `java -cp benchmarks.jar main.java.SyntheticDataset <file.nt> <subjects> [seed]` to write it to a file
+public class SyntheticDataset {
+    public static final String SKOS = "http://www.w3.org/2004/02/skos/core#";
+    public static final String SCHEMA = "http://schema.org/";
+
+    public static final Node TYPE = NodeFactory.createURI("http://www.w3.org/1999/02/22-rdf-syntax-ns#type");
+    public static final Node PREF_LABEL = NodeFactory.createURI(SKOS + "prefLabel");
+    public static final Node ALT_LABEL = NodeFactory.createURI(SKOS + "altLabel");
+    public static final Node NOTE = NodeFactory.createURI(SKOS + "note");
+    public static final Node CONCEPT = NodeFactory.createURI(SKOS + "Concept");
+    public static final Node NAME = NodeFactory.createURI(SCHEMA + "name");
+    public static final Node ALTERNATE_NAME = NodeFactory.createURI(SCHEMA + "alternateName");
+    public static final Node DESCRIPTION = NodeFactory.createURI(SCHEMA + "description");
+    public static final Node THING = NodeFactory.createURI(SCHEMA + "Thing");
+
+    // language tag, letters weighted by how often they occur (roughly)
+    protected static final String[][] LANGUAGES = {
+            {"en", "eeeeeeeeetttttttaaaaaaaoooooooiiiiiinnnnnnsssssshhhhhrrrrrdddlllcccuuummwwffggyyppbbvkjxqz"},
+            {"nl", "eeeeeeeeeeennnnnnnaaaaaaattttttiiiiirrrrrooooodddddssssllllggghhvvkkmmuubbppwjjzcf"},
+            {"fr", "eeeeeeeeeeaaaaaaasssssssiiiiiiinnnnnnttttttrrrrrrluuuuuoooodddcccpmméééèàçêôvqgfhbxyz"},
+            {"de", "eeeeeeeeeeeeennnnnnnnniiiiiiissssssrrrrrrraaaaaattttttdddddhhhhuuuullllcccggmmoobbwwffkkzzäöüßpvj"},
+            {"es", "eeeeeeeeeeeaaaaaaaaaaoooooooosssssssrrrrrrnnnnnnniiiiiddddddllllllcccctttuuummppbbgyvqhfzjñáéíóúx"},
+            {"pl", "iiiiiiiaaaaaaaaeeeeeeeooooooozzzzznnnnnnrrrrrwwwwsssscccctttkkkyyyddpppmmuujjlłłęąbgóśćńźżh"},
+            {"ru", "оооооооооееееееааааааааииииииннннннттттттсссссрррррввввллллккккммммддддппппуууяяыыььггззббччйхжшюцщэфъё"},
+            {"el", "ααααααααοοοοοοοοιιιιιιιεεεεεεττττττσσσσσνννννηηηηηυυυυρρρρκκκκπππμμμλλλωωγγδδχθφβξζψςάέήίόύώ"},
+            {"ja", "のにはをたがでてとしれさいかうすなもるあこくきけつらりっんまみむめよわアイウエオカキクケコサシスセソタチツテト"},
+    };
+
+    protected final Random random;
+    protected final List<List<String>> vocabularies;
+
+    public SyntheticDataset(long seed) {
+        this.random = new Random(seed);
+        this.vocabularies = new ArrayList<>();
+        for (String[] language : LANGUAGES) {
+            List<String> vocabulary = new ArrayList<>();
+            for (int i = 0; i < 4000; i++) {
+                vocabulary.add(this.word(language[1]));
+            }
+            this.vocabularies.add(vocabulary);
+        }
+    }
+
+    // word lengths of 1 to 14 chars, mostly 4 to 8
+    protected String word(String letters) {
+        int length = 1 + this.random.nextInt(4) + this.random.nextInt(4) + this.random.nextInt(4) + this.random.nextInt(3);
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            word.appendCodePoint(letters.codePointAt(letters.offsetByCodePoints(0, this.random.nextInt(letters.codePointCount(0, letters.length())))));
+        }
+        return word.toString();
+    }
+
+    // 1 to 8 words, mostly 1 to 3, with the occasional digit, capital or punctuation
+    public String label(int language) {
+        List<String> vocabulary = this.vocabularies.get(language);
+        int words = 1;
+        while (words < 8 && this.random.nextDouble() < 0.45) {
+            words += 1;
+        }
+
+        StringBuilder label = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                int separator = this.random.nextInt(20);
+                label.append(separator == 0 ? ", " : separator == 1 ? "-" : separator == 2 ? " (" : " ");
+            }
+
+            // the most common words are picked far more often than the rest
+            double skew = this.random.nextDouble();
+            String word = vocabulary.get((int) (vocabulary.size() * skew * skew * skew));
+            if (this.random.nextInt(4) == 0) {
+                word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+            }
+            label.append(word);
+            if (this.random.nextInt(40) == 0) {
+                label.append(' ').append(this.random.nextInt(2000));
+            }
+        }
+        return label.toString();
+    }
+
+    protected int language() {
+        // the first languages are the most common ones
+        double skew = this.random.nextDouble();
+        return (int) (LANGUAGES.length * skew * skew);
+    }
+
+    // every other subject is a schema.org thing instead of a skos concept
+    public List<Triple> subject(int index) {
+        List<Triple> triples = new ArrayList<>();
+        Node subject = NodeFactory.createURI("http://example.org/concept/" + index);
+        boolean skos = index % 2 == 0;
+        triples.add(Triple.create(subject, TYPE, skos ? CONCEPT : THING));
+
+        int languages = 1 + (this.random.nextInt(3) == 0 ? 1 + this.random.nextInt(3) : 0);
+        for (int i = 0; i < languages; i++) {
+            int language = this.language();
+            String tag = LANGUAGES[language][0];
+            triples.add(Triple.create(subject, skos ? PREF_LABEL : NAME, NodeFactory.createLiteral(this.label(language), tag)));
+            while (this.random.nextInt(3) == 0) {
+                triples.add(Triple.create(subject, skos ? ALT_LABEL : ALTERNATE_NAME, NodeFactory.createLiteral(this.label(language), tag)));
+            }
+        }
+        triples.add(Triple.create(subject, skos ? NOTE : DESCRIPTION, NodeFactory.createLiteral("note " + index + " " + this.label(0))));
+        return triples;
+    }
+
+    public List<Triple> triples(int subjects) {
+        List<Triple> triples = new ArrayList<>();
+        for (int i = 0; i < subjects; i++) {
+            triples.addAll(this.subject(i));
+        }
+        return triples;
+    }
+
+    // the properties to fragment this data on
+    public static List<Node> properties() {
+        return List.of(PREF_LABEL, ALT_LABEL, NAME, ALTERNATE_NAME);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path path = Path.of(args[0]);
+        int subjects = Integer.parseInt(args[1]);
+        SyntheticDataset dataset = new SyntheticDataset(args.length > 2 ? Long.parseLong(args[2]) : 42);
+
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), 1 << 16)) {
+            StreamRDF writer = StreamRDFWriter.getWriterStream(out, Lang.NTRIPLES);
+            writer.start();
+            for (int i = 0; i < subjects; i++) {
+                for (Triple triple : dataset.subject(i)) {
+                    writer.triple(triple);
+                }
+            }
+            writer.finish();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package main.java;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+// the sorted output, but the fragments go into the task's archive instead of files of their own
+// every fragment is still written in one go, so it's appended to a segment in one piece
+class ArchiveFragmentOutput extends SortedFragmentOutput {
+    protected final FragmentArchive archive;
+
+    ArchiveFragmentOutput(Path outDirPath, String extension, Budget memory, Consumer<Path> completed, FragmentArchive archive) {
+        super(outDirPath, extension, memory, completed, null);
+        this.archive = archive;
+    }
+
+    @Override
+    protected OutputStream open(String name) {
+        return new ByteArrayOutputStream();
+    }
+
+    @Override
+    protected void close(OutputStream out, String name, long hash, LongFunction<byte[]> trailers) throws IOException {
+        byte[] trailer = trailers.apply(hash);
+        if (trailer != null) {
+            out.write(trailer);
+        }
+        this.archive.add(name, ((ByteArrayOutputStream) out).toByteArray());
+        this.completed.accept(this.outDirPath.resolve(name));
+    }
+}
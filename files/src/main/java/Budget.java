@@ -0,0 +1,32 @@
+package main.java;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// a limit shared by everything that runs at the same time, such as the file handles of all fragment outputs
+// every member gets an equal share, which is rebalanced as members come and go
+// members check their share whenever they're about to use more, and give back what they have above it
+class Budget {
+    protected final long total;
+    protected final AtomicInteger members;
+
+    Budget(long total) {
+        this.total = total;
+        this.members = new AtomicInteger();
+    }
+
+    public void join() {
+        this.members.incrementAndGet();
+    }
+
+    public void leave() {
+        this.members.decrementAndGet();
+    }
+
+    public long share() {
+        return this.total / Math.max(1, this.members.get());
+    }
+
+    public long getTotal() {
+        return this.total;
+    }
+}
@@ -0,0 +1,200 @@
+package main.java;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFWrapper;
+import org.apache.jena.sparql.core.Quad;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+// periodic snapshots of the tasks that read one input, so an interrupted run can continue where the last one left off
+// a checkpoint is taken between two subject blocks: the sinks write everything up to there, and their state is saved
+// along with the position in the input (the number of blocks before it, and for scanned inputs the file and offset too)
+// a run that finds a checkpoint made with the same settings and input resumes from it, and the output is the same
+// as that of an uninterrupted run
+//
+// checkpoints are taken every `interval`, but never so often that they take more than MAX_OVERHEAD of the time;
+// saving the counters grows with their size, so the interval grows along with it
+class Checkpoints {
+    protected static final int VERSION = 2;
+    protected static final double MAX_OVERHEAD = 0.02;
+
+    protected final Path path;
+    protected final String signature;
+    protected final long interval;      // nanos
+    protected List<TaskRun> runs;
+    protected long last;                // when the last checkpoint was taken
+    protected long cost;                // how long it took
+    protected long saved;               // blocks before the last checkpoint
+
+    // where the input continues, when resuming
+    protected boolean resumed;
+    protected long blocks;
+    protected int file;
+    protected long offset;
+
+    Checkpoints(Path path, String signature, int interval) throws IOException {
+        this.path = path;
+        this.signature = signature;
+        this.interval = interval * 1000L * 1000L * 1000L;
+        this.runs = List.of();
+        this.last = System.nanoTime();
+        this.cost = 0;
+        this.saved = 0;
+
+        this.resumed = false;
+        if (Files.exists(path)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                this.resumed = in.readInt() == VERSION && in.readUTF().equals(signature);
+            }
+        }
+    }
+
+    // everything besides the position in the input that the state depends on: the settings of every task, and the input itself
+    public static String signature(Config config, List<ConfigTask> group, List<Path> files) throws IOException {
+        StringBuilder result = new StringBuilder();
+        result.append("threads ").append(config.threads).append(config.stagedPublish ? " staged" : "");
+        for (ConfigTask task : group) {
+            if (task.incremental || "sketch".equals(task.counters)) {
+                throw new IllegalArgumentException("Checkpoints need exact counters, and can't be combined with incremental runs: " + task.name);
+            }
+            result.append('\n').append(TaskRun.signature(config, task))
+                    .append(" output ").append(task.output)
+                    .append(task.unsorted ? " unsorted" : "");
+        }
+        for (Path file : files) {
+            result.append('\n').append(file.toAbsolutePath())
+                    .append(' ').append(Files.size(file))
+                    .append(' ').append(Files.getLastModifiedTime(file).toMillis());
+        }
+        return result.toString();
+    }
+
+    // whether there's a checkpoint to continue from; the runs mustn't clear their output if there is
+    public boolean isResumed() {
+        return this.resumed;
+    }
+
+    public long getBlocks() {
+        return this.blocks;
+    }
+
+    public int getFile() {
+        return this.file;
+    }
+
+    // -1 if the input isn't scanned
+    public long getOffset() {
+        return this.offset;
+    }
+
+    // restores the state of the runs if resuming; they're checkpointed from now on
+    public void start(List<TaskRun> runs) throws IOException {
+        this.runs = runs;
+        if (!this.resumed) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.path), 1 << 16))) {
+            in.readInt();
+            in.readUTF();
+            this.blocks = in.readLong();
+            this.file = in.readInt();
+            this.offset = in.readLong();
+            for (TaskRun run : runs) {
+                run.resume(in);
+            }
+        }
+        System.out.println("Resuming after " + this.blocks + " subject blocks");
+        this.last = System.nanoTime();
+        this.saved = this.blocks;
+    }
+
+    public boolean isDue() {
+        long elapsed = System.nanoTime() - this.last;
+        return elapsed >= this.interval && elapsed >= this.cost / MAX_OVERHEAD;
+    }
+
+    // the next block is the `blocks`th one (counting from 0); `file` and `offset` are where it starts, if known
+    public void save(long blocks, int file, long offset) throws IOException {
+        if (blocks == this.saved) {
+            return; // nothing happened since the last one
+        }
+        long start = System.nanoTime();
+        Path temp = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+            out.writeInt(VERSION);
+            out.writeUTF(this.signature);
+            out.writeLong(blocks);
+            out.writeInt(file);
+            out.writeLong(offset);
+            for (TaskRun run : this.runs) {
+                run.checkpoint(out);
+            }
+            out.flush();
+            stream.getFD().sync(); // so a crash can't leave an empty checkpoint behind
+        }
+        Files.move(temp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        this.last = System.nanoTime();
+        this.cost = this.last - start;
+        this.saved = blocks;
+        System.out.printf("Checkpoint after %d subject blocks (%.1fs)%n", blocks, this.cost / 1e9);
+    }
+
+    // once all runs are finished; the files that only the checkpoint needed are removed along with it
+    public void delete() throws IOException {
+        Files.deleteIfExists(this.path);
+        Files.deleteIfExists(this.path.resolveSibling(this.path.getFileName() + ".tmp"));
+        for (TaskRun run : this.runs) {
+            run.getSink().discardCheckpoint();
+        }
+    }
+
+    // passes the statements on, skipping the blocks before the checkpoint when resuming, and taking checkpoints between blocks
+    // blocks are counted the way the sinks group them: a statement about another subject IRI starts a new one
+    public StreamRDF wrap(StreamRDF destination) {
+        return new StreamRDFWrapper(destination) {
+            protected Node subject = null;
+            protected long blocks = 0;          // before the current one
+            protected final long skipped = Checkpoints.this.resumed ? Checkpoints.this.blocks : 0;
+
+            @Override
+            public void triple(Triple triple) {
+                if (this.accept(triple.getSubject())) {
+                    super.triple(triple);
+                }
+            }
+
+            @Override
+            public void quad(Quad quad) {
+                if (this.accept(quad.getSubject())) {
+                    super.quad(quad);
+                }
+            }
+
+            protected boolean accept(Node subject) {
+                if (subject.isURI() && !subject.equals(this.subject)) {
+                    if (this.subject != null) {
+                        this.blocks += 1;
+                    }
+                    this.subject = subject;
+                    if (this.blocks >= this.skipped && this.blocks > 0 && Checkpoints.this.isDue()) {
+                        try {
+                            Checkpoints.this.save(this.blocks, 0, -1);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                }
+                return this.blocks >= this.skipped;
+            }
+        };
+    }
+}
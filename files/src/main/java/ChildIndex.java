@@ -0,0 +1,279 @@
+package main.java;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongFunction;
+
+// the parent -> child relations between all prefixes, recorded while fragmenting
+// a child extends one of its parent's tokens by one char, or adds a new token of one char
+// each relation is stored as (parent hash, state of the parent's token that was extended, added char)
+// the state of the empty token (Hasher.startToken) means that a new token was added
+// after sealing, the relations are sorted by parent, so the children of a prefix can be found without guessing them
+// the relations are kept in the slot storage of the prefix counters (on the heap, off-heap or memory-mapped):
+// (parent, state) in one slot, and the chars packed 8 to a slot next to them
+// the storage grows by segments, each as large as all the ones before it up to 2^SEGMENT_BITS relations, so nothing is copied
+class ChildIndex {
+    protected static final int FIRST_BITS = 16;     // relations in the first segment
+    protected static final int SEGMENT_BITS = 26;   // relations in the largest segments, 1 GiB of (parent, state) slots
+    protected static final int DOUBLING = SEGMENT_BITS - FIRST_BITS; // segments after the first one that double in size
+    protected static final int CHARS_PER_SLOT = 8;
+
+    protected final Hasher hasher;
+    protected final LongFunction<LongCounterTable.Slots> allocator;
+    protected LongCounterTable.Slots[] relations;   // (parent, state) per relation
+    protected LongCounterTable.Slots[] chars;
+    protected int segments;
+    protected long capacity;
+    protected long size;
+    protected boolean sealed;
+
+    ChildIndex(Hasher hasher, LongFunction<LongCounterTable.Slots> allocator) {
+        this.hasher = hasher;
+        this.allocator = allocator;
+        this.relations = new LongCounterTable.Slots[8];
+        this.chars = new LongCounterTable.Slots[8];
+        this.segments = 0;
+        this.capacity = 0;
+        this.size = 0;
+        this.sealed = false;
+    }
+
+    // records the relations to all possible parents of a new prefix
+    // empty tokens don't contribute to the hash, so they don't have a parent either
+    public void add(long hash, List<String> tokens) {
+        for (String token : tokens) {
+            if (token.length() == 0) {
+                continue;
+            }
+
+            int last = token.length() - 1;
+            long state = this.hasher.tokenState(token.subSequence(0, last));
+            long parent = hash - this.hasher.finishToken(this.hasher.extendToken(state, token.charAt(last)));
+            if (last > 0) {
+                parent += this.hasher.finishToken(state);
+            }
+            this.append(parent, state, token.charAt(last));
+        }
+    }
+
+    protected void append(long parent, long state, char c) {
+        if (this.sealed) {
+            throw new IllegalStateException("The child index is sealed");
+        }
+        if (this.size == this.capacity) {
+            this.grow();
+        }
+        this.set(this.size, parent, state, c);
+        this.size += 1;
+    }
+
+    protected void grow() {
+        if (this.segments == this.relations.length) {
+            this.relations = Arrays.copyOf(this.relations, 2 * this.segments);
+            this.chars = Arrays.copyOf(this.chars, 2 * this.segments);
+        }
+        long slots = start(this.segments + 1) - start(this.segments);
+        this.relations[this.segments] = this.allocator.apply(slots);
+        this.chars[this.segments] = this.allocator.apply(slots / CHARS_PER_SLOT);
+        this.segments += 1;
+        this.capacity = start(this.segments);
+        if (this.capacity < 0) {
+            throw new IllegalStateException("The child index is full");
+        }
+    }
+
+    // the first relation in the given segment
+    protected static long start(int segment) {
+        if (segment <= DOUBLING) {
+            return segment == 0 ? 0 : 1L << (FIRST_BITS + segment - 1);
+        }
+        return (long) (segment - DOUBLING) << SEGMENT_BITS;
+    }
+
+    protected static int segment(long index) {
+        if (index < 1L << FIRST_BITS) {
+            return 0;
+        } else if (index < 1L << SEGMENT_BITS) {
+            return Long.SIZE - Long.numberOfLeadingZeros(index >>> FIRST_BITS);
+        }
+        return Math.toIntExact(DOUBLING + (index >>> SEGMENT_BITS));
+    }
+
+    public long getParent(long index) {
+        int segment = segment(index);
+        return this.relations[segment].key(index - start(segment));
+    }
+
+    public long getState(long index) {
+        int segment = segment(index);
+        return this.relations[segment].value(index - start(segment));
+    }
+
+    public char getChar(long index) {
+        int segment = segment(index);
+        long offset = index - start(segment);
+        return (char) (this.charWord(segment, offset) >>> this.charShift(offset));
+    }
+
+    protected void set(long index, long parent, long state, char c) {
+        int segment = segment(index);
+        long offset = index - start(segment);
+        this.relations[segment].key(offset, parent);
+        this.relations[segment].value(offset, state);
+
+        int shift = this.charShift(offset);
+        long word = (this.charWord(segment, offset) & ~(0xffffL << shift)) | ((long) c << shift);
+        long slot = offset / CHARS_PER_SLOT;
+        if (offset % CHARS_PER_SLOT < CHARS_PER_SLOT / 2) {
+            this.chars[segment].key(slot, word);
+        } else {
+            this.chars[segment].value(slot, word);
+        }
+    }
+
+    // the chars of a slot are packed 4 to the key and 4 to the value
+    protected long charWord(int segment, long offset) {
+        long slot = offset / CHARS_PER_SLOT;
+        return offset % CHARS_PER_SLOT < CHARS_PER_SLOT / 2 ? this.chars[segment].key(slot) : this.chars[segment].value(slot);
+    }
+
+    protected int charShift(long offset) {
+        return (int) (offset % (CHARS_PER_SLOT / 2)) * Character.SIZE;
+    }
+
+    // the relations that were recorded so far, for a checkpoint
+    public void write(DataOutputStream out) throws IOException {
+        out.writeLong(this.size);
+        for (long i = 0; i < this.size; i++) {
+            out.writeLong(this.getParent(i));
+            out.writeLong(this.getState(i));
+            out.writeChar(this.getChar(i));
+        }
+    }
+
+    // replaces the relations with those of a checkpoint
+    public void read(DataInputStream in) throws IOException {
+        this.size = 0;
+        long size = in.readLong();
+        for (long i = 0; i < size; i++) {
+            this.append(in.readLong(), in.readLong(), in.readChar());
+        }
+    }
+
+    // releases the storage, the index can't be used afterwards
+    public void close() {
+        for (int i = 0; i < this.segments; i++) {
+            this.relations[i].free();
+            this.chars[i].free();
+        }
+        this.segments = 0;
+        this.capacity = 0;
+        this.size = 0;
+    }
+
+    // sorts the relations and drops the duplicates (a prefix with repeated tokens has the same parent several times)
+    // nothing can be added afterwards
+    public void seal() {
+        if (this.sealed) {
+            return;
+        }
+        this.sort(0, this.size - 1);
+
+        long kept = 0;
+        for (long i = 0; i < this.size; i++) {
+            if (kept > 0 && this.compare(i, kept - 1) == 0) {
+                continue;
+            }
+            this.move(i, kept++);
+        }
+        this.size = kept;
+        this.sealed = true;
+    }
+
+    // index of the first relation of the given parent; its relations follow each other up to `end(parent)`
+    public long start(long parent) {
+        long low = 0;
+        long high = this.size;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (this.getParent(middle) < parent) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    public long end(long parent) {
+        long end = this.start(parent);
+        while (end < this.size && this.getParent(end) == parent) {
+            end += 1;
+        }
+        return end;
+    }
+
+    public long size() {
+        return this.size;
+    }
+
+    protected int compare(long a, long b) {
+        int result = Long.compare(this.getParent(a), this.getParent(b));
+        if (result == 0) {
+            result = Long.compare(this.getState(a), this.getState(b));
+        }
+        if (result == 0) {
+            result = Character.compare(this.getChar(a), this.getChar(b));
+        }
+        return result;
+    }
+
+    protected void move(long from, long to) {
+        if (from != to) {
+            this.set(to, this.getParent(from), this.getState(from), this.getChar(from));
+        }
+    }
+
+    protected void swap(long a, long b) {
+        long parent = this.getParent(a);
+        long state = this.getState(a);
+        char c = this.getChar(a);
+        this.move(b, a);
+        this.set(b, parent, state, c);
+    }
+
+    // quicksort of the relations in place; the parents are hashes, so the middle element is a fine pivot
+    protected void sort(long low, long high) {
+        while (low < high) {
+            if (high - low < 16) {
+                for (long i = low + 1; i <= high; i++) {
+                    for (long j = i; j > low && this.compare(j - 1, j) > 0; j--) {
+                        this.swap(j - 1, j);
+                    }
+                }
+                return;
+            }
+
+            this.swap((low + high) >>> 1, high);
+            long store = low;
+            for (long i = low; i < high; i++) {
+                if (this.compare(i, high) < 0) {
+                    this.swap(i, store++);
+                }
+            }
+            this.swap(store, high);
+
+            // recurse into the smaller half, loop over the larger one
+            if (store - low < high - store) {
+                this.sort(low, store - 1);
+                low = store + 1;
+            } else {
+                this.sort(store + 1, high);
+                high = store - 1;
+            }
+        }
+    }
+}
@@ -1,9 +1,40 @@
 package main.java;
 
+import javax.annotation.Nullable;
+
 // simple object that Gson uses to deserialize the config.json file
 public class Config {
     public ConfigTask[] tasks;
     public int maxFileHandles;
     public String outDir;
     public String domain;
+
+    // memory (in MB) used to buffer fragment data before it's written, 256 by default
+    public int writeBuffer;
+
+    // record the tokens behind every prefix hash, and report collisions after each task (slow, memory hungry)
+    public boolean auditHashes;
+
+    // size of the thread pool that normalizes and writes the data, 1 or less does everything on the parser thread
+    public int threads;
+
+    // write a gzipped copy next to every fragment, for nginx' gzip_static
+    public boolean gzip;
+
+    // how many tasks run at the same time, 1 by default; they share maxFileHandles and writeBuffer
+    public int parallelTasks;
+
+    // JSON file that the metrics of all tasks are written to every progressInterval seconds (10 by default), if given
+    @Nullable
+    public String progressFile;
+    public int progressInterval;
+
+    // memory (in MB) used to group the statements of unsorted inputs by subject before they're spilled to disk, 256 by default
+    public int groupBuffer;
+
+    // seconds between checkpoints that an interrupted run can continue from, none are taken if 0
+    public int checkpointInterval;
+
+    // write each run to a new directory, and serve it through a symbolic link that's swapped once it's complete
+    public boolean stagedPublish;
 }
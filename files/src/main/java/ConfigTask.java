@@ -4,10 +4,37 @@ import javax.annotation.Nullable;
 
 // simple object that Gson uses to deserialize the config.json file
 public class ConfigTask {
+    // a file or a glob, optionally gzip or bzip2 compressed; `inputs` adds more of them, which are read as one file in the given order
+    @Nullable
     public String input;
+    @Nullable
+    public String[] inputs;
+
+    // the statements of a subject are spread over the input, rather than next to each other; they're grouped first
+    public boolean unsorted;
     public String[] properties;
     public String name;
 
+    // how many writes a fragment takes before it's split, 100 by default
+    public int capacity;
+    // if given, fragments are also split once their data adds up to this many (serialized) bytes
+    public int capacityBytes;
+
     @Nullable
     public String extension;
+
+    // where the prefix counters are kept: "heap" (default), "direct" (off-heap) or "mapped" (temporary files)
+    // or "sketch": approximately, only prefixes that can still take writes are counted exactly
+    @Nullable
+    public String counters;
+    // memory (in MB) of the sketch that covers the saturated prefixes, 64 by default
+    public int sketchMemory;
+
+    // how the fragments are written: "streams" (default) appends to open files, which are closed and reopened as needed
+    // "sorted" collects everything in sorted runs on disk first, and then writes each fragment file once
+    @Nullable
+    public String output;
+
+    // keep the fragments of the previous run, and only rewrite the files that changed; implies the "sorted" output
+    public boolean incremental;
 }
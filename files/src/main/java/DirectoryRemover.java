@@ -0,0 +1,180 @@
+package main.java;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// removes directories with many files on a background pool, instead of file by file before a task can start
+// a directory is first renamed out of the way, which takes no time, so its path can be used again right away
+// the renamed directories start with TRASH_PREFIX; those of an interrupted run are collected when the next one starts
+class DirectoryRemover {
+    protected static final String TRASH_PREFIX = ".trash-";
+    protected static final int BATCH = 256; // files deleted by one task
+
+    protected final ForkJoinPool pool;
+    protected final List<ForkJoinTask<?>> pending;
+    protected final AtomicLong files;
+    protected final AtomicLong directories;
+    protected final AtomicLong failed;
+    protected final AtomicReference<IOException> error; // the first one, it's retried by the next run
+    protected final AtomicLong nanos;   // summed over all threads
+
+    DirectoryRemover(int threads) {
+        this.pool = new ForkJoinPool(Math.max(1, threads));
+        this.pending = new ArrayList<>();
+        this.files = new AtomicLong();
+        this.directories = new AtomicLong();
+        this.failed = new AtomicLong();
+        this.error = new AtomicReference<>();
+        this.nanos = new AtomicLong();
+    }
+
+    // the path is gone once this returns, its contents are deleted later on
+    public void remove(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            Files.delete(path);
+            return;
+        }
+        Path trash = path.resolveSibling(TRASH_PREFIX + UUID.randomUUID());
+        Files.move(path, trash, StandardCopyOption.ATOMIC_MOVE);
+        this.schedule(trash);
+    }
+
+    // removes the trash that an earlier run left behind in the given directory
+    public void collect(Path dirPath) throws IOException {
+        if (!Files.isDirectory(dirPath)) {
+            return;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dirPath, TRASH_PREFIX + "*")) {
+            for (Path entry : entries) {
+                this.schedule(entry);
+            }
+        }
+    }
+
+    protected void schedule(Path trash) {
+        synchronized (this.pending) {
+            this.pending.add(this.pool.submit(new Removal(trash)));
+        }
+    }
+
+    // waits for all directories to be removed; what couldn't be removed is left for the next run
+    public void finish() {
+        long start = System.nanoTime();
+        List<ForkJoinTask<?>> tasks;
+        synchronized (this.pending) {
+            tasks = new ArrayList<>(this.pending);
+            this.pending.clear();
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        this.pool.shutdown();
+
+        if (!tasks.isEmpty()) {
+            System.out.println("Removed: " + this.summary() + ", "
+                    + String.format("%.1f", (System.nanoTime() - start) / 1e9) + "s waited for after the tasks");
+        }
+        if (this.error.get() != null) {
+            System.out.println("Not everything could be removed, the next run tries again:");
+            this.error.get().printStackTrace(System.out);
+        }
+    }
+
+    public String summary() {
+        return this.files.get() + " files in " + this.directories.get() + " directories, "
+                + (this.failed.get() > 0 ? this.failed.get() + " failed, " : "")
+                + String.format("%.1f", this.nanos.get() / 1e9) + "s spent";
+    }
+
+    protected void failed(IOException e) {
+        this.failed.incrementAndGet();
+        this.error.compareAndSet(null, e);
+    }
+
+    // deletes the files of a directory in batches, and its subdirectories as tasks of their own, then the directory itself
+    class Removal extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        protected final Path dirPath;
+
+        Removal(Path dirPath) {
+            this.dirPath = dirPath;
+        }
+
+        @Override
+        protected void compute() {
+            long start = System.nanoTime();
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            List<Path> batch = new ArrayList<>(BATCH);
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(this.dirPath)) {
+                for (Path entry : entries) {
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        tasks.add(new Removal(entry).fork());
+                        continue;
+                    }
+                    batch.add(entry);
+                    if (batch.size() == BATCH) {
+                        tasks.add(new Batch(batch).fork());
+                        batch = new ArrayList<>(BATCH);
+                    }
+                }
+            } catch (IOException e) {
+                DirectoryRemover.this.failed(e);
+            }
+            DirectoryRemover.this.nanos.addAndGet(System.nanoTime() - start);
+
+            new Batch(batch).compute();
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+
+            start = System.nanoTime();
+            try {
+                Files.delete(this.dirPath);
+                DirectoryRemover.this.directories.incrementAndGet();
+            } catch (IOException e) {
+                DirectoryRemover.this.failed(e);
+            }
+            DirectoryRemover.this.nanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        protected final List<Path> filePaths;
+
+        Batch(List<Path> filePaths) {
+            this.filePaths = filePaths;
+        }
+
+        @Override
+        protected void compute() {
+            long start = System.nanoTime();
+            for (Path filePath : this.filePaths) {
+                try {
+                    Files.delete(filePath);
+                    DirectoryRemover.this.files.incrementAndGet();
+                } catch (IOException e) {
+                    DirectoryRemover.this.failed(e);
+                }
+            }
+            DirectoryRemover.this.nanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package main.java;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// all fragments of a task packed in a few files, instead of one file per fragment
+// fragments are appended to segment files, fragments-000.seg and up, each of which stays below SEGMENT_SIZE
+// fragments.idx maps each file name to where its data is, sorted by name so it can be searched while memory-mapped
+// fragments of at least GzipSidecars.MIN_LENGTH bytes are stored a second time, compressed, if asked to
+//
+// fragments.idx: a header of 4 ints (MAGIC, VERSION, segments, entries),
+// then for every entry: name offset (long), name length (int), segment (int), offset (long), length (int), flags (int),
+// then all names (UTF-8); entries are sorted by name, the uncompressed copy of a fragment before the compressed one
+class FragmentArchive {
+    protected static final int MAGIC = 0x46524147; // "FRAG"
+    protected static final int VERSION = 1;
+    protected static final int HEADER_SIZE = 16;
+    protected static final int ENTRY_SIZE = 32;
+    protected static final int GZIP = 1;           // flag of compressed entries
+    protected static final long SEGMENT_SIZE = 1L << 30; // bytes, so every segment can be mapped at once
+    protected static final String INDEX_NAME = "fragments.idx";
+
+    protected final Path dirPath;
+    protected final boolean gzip;
+    protected final List<Entry> entries;
+    protected final List<Path> segments;
+    protected OutputStream segment;
+    protected long segmentSize;
+    protected long bytes;
+    protected long compressedBytes;
+
+    FragmentArchive(Path dirPath, boolean gzip) {
+        this.dirPath = dirPath;
+        this.gzip = gzip;
+        this.entries = new ArrayList<>();
+        this.segments = new ArrayList<>();
+        this.segment = null;
+        this.segmentSize = 0;
+        this.bytes = 0;
+        this.compressedBytes = 0;
+    }
+
+    // adds a complete fragment file, can be called by several threads at the same time
+    public void add(String name, byte[] data) throws IOException {
+        byte[] compressed = null;
+        if (this.gzip && data.length >= GzipSidecars.MIN_LENGTH) {
+            // compressed outside of the lock
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4);
+            try (OutputStream out = new GzipSidecars.MaxGZIPOutputStream(bytes)) {
+                out.write(data);
+            }
+            compressed = bytes.toByteArray();
+        }
+
+        synchronized (this) {
+            this.append(name, data, 0);
+            this.bytes += data.length;
+            if (compressed != null) {
+                this.append(name, compressed, GZIP);
+                this.compressedBytes += compressed.length;
+            }
+        }
+    }
+
+    protected void append(String name, byte[] data, int flags) throws IOException {
+        if (this.segment == null || this.segmentSize + data.length > SEGMENT_SIZE) {
+            if (this.segment != null) {
+                this.segment.close();
+            }
+            Path path = this.dirPath.resolve(segmentName(this.segments.size()));
+            this.segments.add(path);
+            this.segment = new BufferedOutputStream(Files.newOutputStream(path), 1 << 16);
+            this.segmentSize = 0;
+        }
+
+        this.entries.add(new Entry(name.getBytes(StandardCharsets.UTF_8), this.segments.size() - 1, this.segmentSize, data.length, flags));
+        this.segment.write(data);
+        this.segmentSize += data.length;
+    }
+
+    // completes the segments, and writes the index; nothing can be added afterwards
+    public synchronized void close() throws IOException {
+        if (this.segment != null) {
+            this.segment.close();
+            this.segment = null;
+        }
+
+        this.entries.sort(Entry.ORDER);
+        Path temp = this.dirPath.resolve(INDEX_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.segments.size());
+            out.writeInt(this.entries.size());
+            long nameOffset = 0;
+            for (Entry entry : this.entries) {
+                out.writeLong(nameOffset);
+                out.writeInt(entry.name.length);
+                out.writeInt(entry.segment);
+                out.writeLong(entry.offset);
+                out.writeInt(entry.length);
+                out.writeInt(entry.flags);
+                nameOffset += entry.name.length;
+            }
+            for (Entry entry : this.entries) {
+                out.write(entry.name);
+            }
+        }
+        Files.move(temp, this.dirPath.resolve(INDEX_NAME));
+    }
+
+    public synchronized String summary() {
+        return this.entries.size() + " entries in " + this.segments.size() + " segments, "
+                + this.bytes + " bytes" + (this.gzip ? " (" + this.compressedBytes + " compressed)" : "");
+    }
+
+    protected static String segmentName(int segment) {
+        return String.format("fragments-%03d.seg", segment);
+    }
+
+    public static boolean exists(Path dirPath) {
+        return Files.exists(dirPath.resolve(INDEX_NAME));
+    }
+
+    static class Entry {
+        static final Comparator<Entry> ORDER = Comparator.<Entry, byte[]>comparing(e -> e.name, Arrays::compareUnsigned)
+                .thenComparingInt(e -> e.flags);
+
+        final byte[] name;
+        final int segment;
+        final long offset;
+        final int length;
+        final int flags;
+
+        Entry(byte[] name, int segment, long offset, int length, int flags) {
+            this.name = name;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.flags = flags;
+        }
+    }
+
+    // looks fragments up in a complete archive, with the index and the segments memory-mapped
+    // the returned buffers are views on the mapped segments, their data is never copied onto the heap
+    // can be used by several threads at the same time
+    static class Reader {
+        protected final ByteBuffer index;
+        protected final int entries;
+        protected final int namesStart;
+        protected final MappedByteBuffer[] segments;
+
+        Reader(Path dirPath) throws IOException {
+            this.index = map(dirPath.resolve(INDEX_NAME));
+            if (this.index.getInt(0) != MAGIC || this.index.getInt(4) != VERSION) {
+                throw new IOException("Not a fragment archive of version " + VERSION + ": " + dirPath);
+            }
+            this.segments = new MappedByteBuffer[this.index.getInt(8)];
+            for (int i = 0; i < this.segments.length; i++) {
+                this.segments[i] = map(dirPath.resolve(segmentName(i)));
+            }
+            this.entries = this.index.getInt(12);
+            this.namesStart = HEADER_SIZE + this.entries * ENTRY_SIZE;
+        }
+
+        protected static MappedByteBuffer map(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+
+        public int size() {
+            return this.entries;
+        }
+
+        // the data of the named fragment, compressed if `gzip` and if there is a compressed copy, or null if there's no such fragment
+        public Fragment get(String name, boolean gzip) {
+            byte[] key = name.getBytes(StandardCharsets.UTF_8);
+            int low = 0;
+            int high = this.entries - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int comparison = this.compareName(middle, key);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    // the compressed copy directly follows the uncompressed one
+                    int entry = middle;
+                    if (this.flags(entry) == GZIP) {
+                        entry -= 1;
+                    }
+                    if (gzip && entry + 1 < this.entries && this.flags(entry + 1) == GZIP && this.compareName(entry + 1, key) == 0) {
+                        entry += 1;
+                    }
+                    return this.fragment(entry);
+                }
+            }
+            return null;
+        }
+
+        protected int flags(int entry) {
+            return this.index.getInt(HEADER_SIZE + entry * ENTRY_SIZE + 28);
+        }
+
+        protected int compareName(int entry, byte[] key) {
+            int position = HEADER_SIZE + entry * ENTRY_SIZE;
+            int start = this.namesStart + (int) this.index.getLong(position);
+            int length = this.index.getInt(position + 8);
+            for (int i = 0; i < Math.min(length, key.length); i++) {
+                int comparison = Integer.compare(this.index.get(start + i) & 0xff, key[i] & 0xff);
+                if (comparison != 0) {
+                    return comparison;
+                }
+            }
+            return Integer.compare(length, key.length);
+        }
+
+        protected Fragment fragment(int entry) {
+            int position = HEADER_SIZE + entry * ENTRY_SIZE;
+            int segment = this.index.getInt(position + 12);
+            int offset = (int) this.index.getLong(position + 16);
+            int length = this.index.getInt(position + 24);
+            ByteBuffer data = this.segments[segment].duplicate().position(offset).limit(offset + length).slice();
+            return new Fragment(data, this.flags(entry) == GZIP);
+        }
+    }
+
+    static class Fragment {
+        final ByteBuffer data;
+        final boolean gzip;
+
+        Fragment(ByteBuffer data, boolean gzip) {
+            this.data = data;
+            this.gzip = gzip;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package main.java;
+
+// how much a fragment can hold before new values go to longer prefixes, i.e. before the fragment is split into its children
+// a fragment is full once it has `subjects` writes, or, if `bytes` is given, once the blocks written to it add up to that many bytes
+// the bytes of every fragment are tracked either way, for the size report at the end of a task
+class FragmentCapacity {
+    protected static final int DEFAULT_SUBJECTS = 100;
+
+    protected final int subjects;
+    protected final int bytes;             // 0 if the size of fragments isn't limited
+    protected final PrefixCounters sizes;  // the bytes written to each fragment, as its written count
+
+    FragmentCapacity(int subjects, int bytes, PrefixCounters sizes) {
+        this.subjects = subjects > 0 ? subjects : DEFAULT_SUBJECTS;
+        this.bytes = Math.max(0, bytes);
+        this.sizes = sizes;
+    }
+
+    public static FragmentCapacity create(ConfigTask task) {
+        return create(task, 1);
+    }
+
+    // the capacity for a sample of the subjects; fragments are split at the same fraction of their capacity
+    public static FragmentCapacity create(ConfigTask task, double sample) {
+        int subjects = (int) Math.max(1, Math.round((task.capacity > 0 ? task.capacity : DEFAULT_SUBJECTS) * sample));
+        int bytes = task.capacityBytes > 0 ? (int) Math.max(1, Math.round(task.capacityBytes * sample)) : 0;
+        if ("sketch".equals(task.counters)) {
+            // a quarter of the sketch memory, the prefix counters take the rest
+            return new FragmentCapacity(subjects, bytes, new SketchCounters(SketchCounters.memory(task) / 4, 0));
+        }
+        return new FragmentCapacity(subjects, bytes, LongCounterTable.create(task.counters));
+    }
+
+    public int getSubjects() {
+        return this.subjects;
+    }
+
+    public PrefixCounters getSizes() {
+        return this.sizes;
+    }
+
+    // whether the fragment has reached its size limit; the limit on writes is enforced by the counters
+    public boolean isFullBySize(long hash) {
+        return this.bytes > 0 && this.sizes.getWritten(hash) >= this.bytes;
+    }
+
+    // has to be called in the order of the input, right after the block's fragments were selected
+    public void addBytes(long hash, int length) {
+        int current = this.sizes.getWritten(hash);
+        this.sizes.addWritten(hash, Math.min(length, Integer.MAX_VALUE - current));
+    }
+
+    // whether values went past the fragment to longer prefixes, which makes it a node with hypermedia controls
+    public boolean isSplit(long hash, PrefixCounters counters) {
+        return counters.getCount(hash) > this.subjects || this.isFullBySize(hash);
+    }
+
+    public void close() {
+        this.sizes.close();
+    }
+}
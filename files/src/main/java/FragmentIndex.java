@@ -0,0 +1,180 @@
+package main.java;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// fingerprints of all fragment files of a task, kept in between runs
+// an incremental run compares every fragment it completes with the previous run, and only rewrites the ones that changed
+// the fingerprints cover the whole file, data and hypermedia controls, so the result is the same as a full rebuild
+// in staged runs, the previous run is another directory: unchanged files are hard-linked from there instead of written again,
+// so they keep their modification time, and with it the ETags that clients and caches have
+class FragmentIndex {
+    protected static final int VERSION = 1; // change when the hashes or the file layout change
+
+    protected final Path path;
+    protected final String signature;              // everything besides the input that determines the output
+    protected final Map<Long, Entry> previous;     // read-only once loaded
+    @Nullable
+    protected final Path previousDirPath;          // where the previous files are, if not where the new ones go
+    protected final Map<Long, Entry> current;
+    protected final AtomicLong rewritten;
+    protected final AtomicLong unchanged;
+    protected long removed;
+
+    protected FragmentIndex(Path path, String signature, Map<Long, Entry> previous, @Nullable Path previousDirPath) {
+        this.path = path;
+        this.signature = signature;
+        this.previous = previous;
+        this.previousDirPath = previousDirPath;
+        this.current = new ConcurrentHashMap<>();
+        this.rewritten = new AtomicLong();
+        this.unchanged = new AtomicLong();
+        this.removed = 0;
+    }
+
+    // the previous run only counts if it was made with the same settings
+    public static FragmentIndex load(Path path, String signature) throws IOException {
+        return load(path, signature, signature, null);
+    }
+
+    // for staged runs, whose signatures name their generation: the stored index has to be the one of `previousDirPath`
+    // without a previous generation, `previousSignature` is null
+    public static FragmentIndex load(Path path, String signature, @Nullable String previousSignature, @Nullable Path previousDirPath) throws IOException {
+        Map<Long, Entry> previous = new ConcurrentHashMap<>();
+        if (previousSignature != null && Files.exists(path)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+                if (in.readInt() == VERSION && in.readUTF().equals(previousSignature)) {
+                    long size = in.readLong();
+                    for (long i = 0; i < size; i++) {
+                        long hash = in.readLong();
+                        previous.put(hash, new Entry(in.readUTF(), in.readLong(), in.readLong()));
+                    }
+                }
+            }
+        }
+        return new FragmentIndex(path, signature, previous, previousDirPath);
+    }
+
+    // without a usable previous run, everything has to be built from scratch
+    public boolean isEmpty() {
+        return this.previous.isEmpty();
+    }
+
+    // records the fragment's fingerprint, and tells whether its file has to be (re)written
+    public boolean update(long hash, String name, byte[] digest) {
+        Entry entry = new Entry(name, digest);
+        this.current.put(hash, entry);
+
+        if (entry.equals(this.previous.get(hash))) {
+            this.unchanged.incrementAndGet();
+            return false;
+        }
+        this.rewritten.incrementAndGet();
+        return true;
+    }
+
+    // puts an unchanged file in place, along with its compressed copy, and tells whether that worked
+    // it's only missing if it was removed by hand, then it has to be written after all
+    public boolean keep(Path filePath) throws IOException {
+        if (this.previousDirPath == null) {
+            return true; // it's still there
+        }
+        Path previousPath = this.previousDirPath.resolve(filePath.getFileName());
+        Path gzipPath = previousPath.resolveSibling(previousPath.getFileName() + ".gz");
+        try {
+            Files.createLink(filePath, previousPath);
+        } catch (NoSuchFileException e) {
+            this.unchanged.decrementAndGet();
+            this.rewritten.incrementAndGet();
+            return false;
+        }
+        if (Files.exists(gzipPath)) {
+            Files.createLink(filePath.resolveSibling(gzipPath.getFileName()), gzipPath);
+        }
+        return true;
+    }
+
+    // deletes the files (and their compressed copies) of fragments that no longer exist
+    // a staged run starts from an empty directory, they're only counted there
+    public void removeStale(Path outDirPath) throws IOException {
+        for (Map.Entry<Long, Entry> entry : this.previous.entrySet()) {
+            Entry now = this.current.get(entry.getKey());
+            if (now == null || !now.name.equals(entry.getValue().name)) {
+                if (this.previousDirPath == null) {
+                    Path filePath = outDirPath.resolve(entry.getValue().name);
+                    Files.deleteIfExists(filePath);
+                    Files.deleteIfExists(filePath.resolveSibling(filePath.getFileName() + ".gz"));
+                }
+                this.removed += 1;
+            }
+        }
+    }
+
+    // replaces the stored index in one go, so an interrupted run leaves the previous one intact
+    public void save() throws IOException {
+        Path temp = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(VERSION);
+            out.writeUTF(this.signature);
+            out.writeLong(this.current.size());
+            for (Map.Entry<Long, Entry> entry : this.current.entrySet()) {
+                out.writeLong(entry.getKey());
+                out.writeUTF(entry.getValue().name);
+                out.writeLong(entry.getValue().high);
+                out.writeLong(entry.getValue().low);
+            }
+        }
+        Files.move(temp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public String summary() {
+        return this.rewritten.get() + " written, " + this.unchanged.get() + (this.previousDirPath != null ? " unchanged (linked), " : " unchanged, ")
+                + this.removed + " removed";
+    }
+
+    static class Entry {
+        final String name;
+        final long high;
+        final long low;
+
+        Entry(String name, long high, long low) {
+            this.name = name;
+            this.high = high;
+            this.low = low;
+        }
+
+        // the first 16 bytes of the digest
+        Entry(String name, byte[] digest) {
+            this(name, toLong(digest, 0), toLong(digest, 8));
+        }
+
+        static long toLong(byte[] bytes, int offset) {
+            long result = 0;
+            for (int i = offset; i < offset + 8; i++) {
+                result = (result << 8) | (bytes[i] & 0xff);
+            }
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) o;
+            return this.high == other.high && this.low == other.low && this.name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(this.high);
+        }
+    }
+}
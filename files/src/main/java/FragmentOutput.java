@@ -0,0 +1,96 @@
+package main.java;
+
+import org.apache.jena.riot.Lang;
+
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+// where a sink sends the subject blocks of each fragment
+// blocks arrive serialized, the same bytes are passed to every fragment the block belongs to
+interface FragmentOutput {
+    byte[] BLOCK_SEPARATOR = "\n".getBytes(StandardCharsets.UTF_8);
+    byte[] NO_SEPARATOR = new byte[0];
+
+    void write(List<String> tokens, long hash, byte[] block) throws IOException;
+
+    // a write to the fragment was counted in `counters`; called by the thread that selects the fragments, in the order of the input
+    default void counted(List<String> tokens, long hash, PrefixCounters counters) {
+
+    }
+
+    // all fragment files are complete once this returns
+    // a fragment ends with its trailer (its hypermedia controls) if `trailers` has one for its hash, so it's written along with the data
+    // trailers are taken out of it, those that are left over belong to fragments without data
+    void finish(LongFunction<byte[]> trailers) throws IOException;
+
+    // writes what's needed to continue from here after a restart; all data that was given so far is on disk afterwards
+    void checkpoint(DataOutputStream out) throws IOException;
+
+    // continues from a checkpoint, undoing everything that was written after it
+    // returns the names of the files in the output directory that are part of it, the others are left over from after the checkpoint
+    List<String> resume(DataInputStream in) throws IOException;
+
+    // removes what only a checkpoint needed, once the checkpoint is gone
+    default void discardCheckpoint() throws IOException {
+
+    }
+
+    static FragmentOutput create(
+            String mode,
+            Path outDirPath,
+            String extension,
+            Budget handles,
+            Budget memory,
+            Consumer<Path> completed,   // called with every fragment file that is complete
+            @Nullable FragmentIndex index,  // only given for incremental runs
+            @Nullable FragmentArchive archive,  // only given for the archive output
+            TaskMetrics metrics
+    ) throws IOException {
+        if (mode == null || mode.equals("streams")) {
+            if (index != null) {
+                throw new IllegalArgumentException("Incremental runs need the sorted output");
+            }
+            return new FragmentStreams(handles, outDirPath, extension, memory, completed, metrics);
+        } else if (mode.equals("sorted")) {
+            return new SortedFragmentOutput(outDirPath, extension, memory, completed, index);
+        } else if (mode.equals("archive")) {
+            if (index != null) {
+                throw new IllegalArgumentException("Incremental runs need the sorted output");
+            }
+            return new ArchiveFragmentOutput(outDirPath, extension, memory, completed, archive);
+        } else if (mode.equals("plan")) {
+            return new PlanOutput(handles, outDirPath, extension, memory, metrics);
+        }
+        throw new IllegalArgumentException("Unknown output mode: " + mode);
+    }
+
+    static Lang lang(String extension) {
+        if (extension.equals(".trig")) {
+            return Lang.TRIG;
+        } else if (extension.equals(".nt")) {
+            return Lang.NTRIPLES;
+        } else {
+            return Lang.TURTLE;
+        }
+    }
+
+    // what goes between two blocks of the same fragment; Turtle and TriG writers leave an empty line between subjects
+    static byte[] separator(String extension) {
+        if (lang(extension) == Lang.NTRIPLES) {
+            return NO_SEPARATOR;
+        }
+        return BLOCK_SEPARATOR;
+    }
+
+    // creates the outputs of a sink; all outputs share the file handles and memory through their budgets
+    interface Factory {
+        FragmentOutput create() throws IOException;
+    }
+}
@@ -0,0 +1,164 @@
+package main.java;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// serves the archives of the tasks of a config, the way server/nginx.conf serves the fragment files
+// so the whole stack can be tried (and load tested) without docker
+// a request for /<task>/<name> is answered with <name>.nt, <name>.ttl or <name> from the task's archive, in that order
+// and /<task>/ with the root node; compressed copies are sent to clients that accept them
+// fragments are sent straight from the mapped segments, so they're read from the page cache without any file handles
+// HttpServer only takes a stream, so the data still passes through one small buffer per thread, but is never collected on the heap
+class FragmentServer {
+    protected static final String ALLOWED_METHODS = "GET, OPTIONS";
+    protected static final String ALLOWED_HEADERS = "DNT,User-Agent,X-Requested-With,If-Modified-Since,Cache-Control,Content-Type,Range";
+    protected static final long MAX_AGE = 24 * 60 * 60; // seconds, as `expires 24h`
+    protected static final int CHUNK_SIZE = 1 << 16;
+
+    protected final Map<String, FragmentArchive.Reader> archives;
+    protected final HttpServer server;
+    protected final ExecutorService executor;
+    protected final ThreadLocal<byte[]> chunks;
+
+    FragmentServer(Config config, int port) throws IOException {
+        this.archives = new HashMap<>();
+        for (ConfigTask task : config.tasks) {
+            Path dirPath = Path.of(config.outDir, task.name);
+            if (FragmentArchive.exists(dirPath)) {
+                FragmentArchive.Reader reader = new FragmentArchive.Reader(dirPath);
+                this.archives.put(task.name, reader);
+                System.out.println("Serving " + reader.size() + " entries of " + task.name);
+            } else {
+                System.out.println("No archive for " + task.name + ", it needs the \"archive\" output");
+            }
+        }
+
+        this.chunks = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+        this.executor = Executors.newFixedThreadPool(Math.max(4, config.threads));
+        this.server = HttpServer.create(new InetSocketAddress(port), 1024);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(this.executor);
+    }
+
+    public void start() {
+        this.server.start();
+        System.out.println("Listening on port " + this.server.getAddress().getPort());
+    }
+
+    public void stop() {
+        this.server.stop(0);
+        this.executor.shutdown();
+    }
+
+    protected void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Access-Control-Allow-Origin", "*");
+            headers.set("Access-Control-Allow-Methods", ALLOWED_METHODS);
+            headers.set("Access-Control-Allow-Headers", ALLOWED_HEADERS);
+
+            String method = exchange.getRequestMethod();
+            if (method.equals("OPTIONS")) {
+                headers.set("Access-Control-Max-Age", "1728000");
+                headers.set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(204, -1);
+                return;
+            }
+            headers.set("Access-Control-Expose-Headers", "Content-Length,Content-Range");
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                headers.set("Allow", "GET, HEAD, OPTIONS");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+            String name = null;
+            FragmentArchive.Fragment fragment = null;
+            for (String candidate : candidates(exchange.getRequestURI())) {
+                fragment = this.find(candidate, gzip);
+                if (fragment != null) {
+                    name = candidate;
+                    break;
+                }
+            }
+            if (fragment == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            headers.set("Content-Type", contentType(name));
+            headers.set("Vary", "Accept-Encoding");
+            headers.add("Cache-Control", "max-age=" + MAX_AGE);
+            headers.add("Cache-Control", "public");
+            headers.set("Expires", DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(MAX_AGE)));
+            if (fragment.gzip) {
+                headers.set("Content-Encoding", "gzip");
+            }
+
+            ByteBuffer data = fragment.data.duplicate();
+            if (method.equals("HEAD")) {
+                headers.set("Content-Length", Integer.toString(data.remaining()));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, data.remaining() == 0 ? -1 : data.remaining());
+            this.send(data, exchange.getResponseBody());
+        }
+    }
+
+    // the names that a path can refer to, like nginx' try_files and index
+    protected static List<String> candidates(URI uri) {
+        String path = uri.getPath();
+        if (path.endsWith("/")) {
+            return List.of(path + ".root.nt", path + ".root.ttl");
+        }
+        return List.of(path + ".nt", path + ".ttl", path);
+    }
+
+    protected FragmentArchive.Fragment find(String path, boolean gzip) {
+        // /<task>/<name>, names never contain a slash
+        int slash = path.lastIndexOf('/');
+        if (slash <= 0) {
+            return null;
+        }
+        FragmentArchive.Reader archive = this.archives.get(path.substring(1, slash));
+        return archive == null ? null : archive.get(path.substring(slash + 1), gzip);
+    }
+
+    protected void send(ByteBuffer data, OutputStream out) throws IOException {
+        byte[] chunk = this.chunks.get();
+        while (data.hasRemaining()) {
+            int length = Math.min(chunk.length, data.remaining());
+            data.get(chunk, 0, length);
+            out.write(chunk, 0, length);
+        }
+    }
+
+    protected static String contentType(String name) {
+        if (name.endsWith(".nt")) {
+            return "application/n-triples";
+        } else if (name.endsWith(".ttl")) {
+            return "text/turtle";
+        } else if (name.endsWith(".trig")) {
+            return "application/trig";
+        }
+        return "application/octet-stream";
+    }
+}
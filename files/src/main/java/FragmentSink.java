@@ -3,11 +3,15 @@ package main.java;
 import org.apache.jena.atlas.lib.CharSpace;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.Triple;
-import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.out.NodeFormatter;
+import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.out.NodeFormatterNT;
+import org.apache.jena.riot.out.NodeFormatterTTL;
+import org.apache.jena.riot.out.NodeToLabel;
+import org.apache.jena.riot.RIOT;
 import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.riot.system.StreamRDFWriter;
+import org.apache.jena.riot.writer.WriterStreamRDFBlocks;
 import org.apache.jena.sparql.core.Quad;
 import org.apache.jena.util.PrintUtil;
 
@@ -16,117 +20,224 @@ import java.io.*;
 import java.nio.file.Path;
 import java.text.Normalizer;
 import java.util.*;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
 
 import static java.lang.System.exit;
 
 class FragmentSink implements StreamRDF {
     protected final List<Node> properties;
-    protected final Map<Long, StreamRDF> outStreams;
-    protected final Map<Long, Integer> counts;
-    protected final Map<Long, Integer> written;
+    protected final FragmentOutput output;
+    protected final PrefixCounters counters;
+    protected final FragmentCapacity capacity;
     protected final NodeFormatter nodeFmt;
     protected final Path outDirPath;
-    protected final Set<Character> charSet;
+    protected final ValueNormalizer normalizer;
+    protected final long[] seenChars;    // one bit per char
+    protected char[] charOrder;          // the chars in the order they were first seen
+    protected int charCount;
     protected final Hasher hasher;
     protected final String extension;
+    protected final Lang lang;
+    protected final SubstringEnumerator enumerator;
+    protected final TaskMetrics metrics;
 
     @Nullable
     protected TripleBuffer buffer;
-
-    FragmentSink(List<Node> properties, int maxFileHandles, Path outDirPath, Hasher hasher, String extension) {
+    protected double sample; // the fraction of the subjects that is fragmented, 1 unless planning
+
+    FragmentSink(
+            List<Node> properties,
+            FragmentOutput.Factory outputs,
+            Path outDirPath,
+            Hasher hasher,
+            String extension,
+            PrefixCounters counters,
+            FragmentCapacity capacity,
+            TaskMetrics metrics
+    ) throws IOException {
+        this.metrics = metrics;
         this.hasher = hasher;
         this.nodeFmt = new NodeFormatterNT(CharSpace.UTF8); // creates ntriples lines
-        this.outStreams = new FifoMap<>(maxFileHandles);    // all open file handles
-        this.counts = new HashMap<>();  // how often a prefix was encountered
-        this.written = new HashMap<>(); // how often a prefix (fragment) was written to
+        this.output = this.createOutput(outputs);
+        this.counters = counters; // how often a prefix was encountered, and how often it was written to
+        this.capacity = capacity; // when a fragment is full
 
         // some implementation/optimization details
-        this.charSet = new HashSet<>(); // used to enumerate all possible prefixes when creating hypermedia links
+        this.normalizer = new ValueNormalizer(metrics);
+        // used to enumerate all possible prefixes when creating hypermedia links
+        this.seenChars = new long[(Character.MAX_VALUE + 1) / Long.SIZE];
+        this.charOrder = new char[256];
+        this.charCount = 0;
 
         this.outDirPath = outDirPath; // root location to write to
 
         // stuff to filter on
         this.properties = properties;
         this.buffer = null;
+        this.sample = 1;
         this.extension = extension;
+        this.lang = FragmentOutput.lang(extension);
+        this.enumerator = new SubstringEnumerator(this.counters, capacity, hasher);
     }
 
-    public Map<Long, Integer> getCounts() {
-        return counts;
+    public PrefixCounters getCounters() {
+        return counters;
+    }
+
+    // all chars of the values, in the iteration order of a HashSet they were added to as they were found
+    public Set<Character> getCharSet() {
+        Set<Character> result = new HashSet<>();
+        for (int i = 0; i < this.charCount; i++) {
+            result.add(this.charOrder[i]);
+        }
+        return result;
     }
 
-    public Map<Long, Integer> getWritten() {
-        return written;
+    public ChildIndex getChildIndex() {
+        return this.enumerator.getChildIndex();
     }
 
-    public Set<Character> getCharSet() {
-        return charSet;
+    // only fragments a fraction of the subjects, picked by the hash of their IRI so every run picks the same ones
+    public void setSample(double sample) {
+        this.sample = sample;
     }
 
-    public void flush() {
-        if (this.buffer != null) {
-            Set<String> values = new HashSet<>();
-            for ( Node p : properties ) {
-                for ( Triple triple : this.buffer.getTriples()) {
-                    if (triple.getPredicate().getURI().equals(p.getURI())) {
-                        String language = triple.getObject().getLiteralLanguage();
-                        if (!(
-                                language.equals("ja")
-                                        || language.equals("zh")
-                                        || language.equals("ko")
-                                        || language.equals("zh-cn")
-                                        || language.equals("got")
-                                        || language.equals("yue")
-                        )) {
-                            values.add(triple.getObject().getLiteralLexicalForm());
-                        }
+    protected boolean isSampled(String subject) {
+        return this.sample >= 1 || ((subject.hashCode() * 0x9e3779b9) >>> 12) < this.sample * (1 << 20);
+    }
+
+    // the literal values of the buffer's properties that determine which fragments it goes to
+    protected Set<String> values(TripleBuffer buffer) {
+        Set<String> values = new HashSet<>();
+        for ( Node p : properties ) {
+            for ( Triple triple : buffer.getTriples()) {
+                if (triple.getPredicate().getURI().equals(p.getURI())) {
+                    String language = triple.getObject().getLiteralLanguage();
+                    if (!(
+                            language.equals("ja")
+                                    || language.equals("zh")
+                                    || language.equals("ko")
+                                    || language.equals("zh-cn")
+                                    || language.equals("got")
+                                    || language.equals("yue")
+                    )) {
+                        values.add(triple.getObject().getLiteralLexicalForm());
                     }
                 }
-                for ( Quad quad : this.buffer.getQuads()) {
-                    if (quad.getPredicate().getURI().equals(p.getURI()) && quad.getObject().isLiteral()) {
-                        String language = quad.getObject().getLiteralLanguage();
-                        if (!(
-                            language.equals("ja")
-                            || language.equals("zh")
-                            || language.equals("ko")
-                            || language.equals("zh-cn")
-                            || language.equals("got")
-                            || language.equals("yue")
-                        )) {
-                            values.add(quad.getObject().getLiteralLexicalForm());
-                        }
+            }
+            for ( Quad quad : buffer.getQuads()) {
+                if (quad.getPredicate().getURI().equals(p.getURI()) && quad.getObject().isLiteral()) {
+                    String language = quad.getObject().getLiteralLanguage();
+                    if (!(
+                        language.equals("ja")
+                        || language.equals("zh")
+                        || language.equals("ko")
+                        || language.equals("zh-cn")
+                        || language.equals("got")
+                        || language.equals("yue")
+                    )) {
+                        values.add(quad.getObject().getLiteralLexicalForm());
                     }
                 }
             }
+        }
+        return values;
+    }
 
-            try {
-                Iterable<StreamRDF> streams = this.getOutStreams(values);
-                for (StreamRDF out : streams) {
-                    for ( Triple triple : buffer.getTriples()) {
-                        out.triple(triple);
-                    }
-                    for ( Quad quad : buffer.getQuads()) {
-                        out.quad(quad);
+    public void flush() {
+        if (this.buffer != null) {
+            TripleBuffer buffer = this.buffer;
+            this.select(buffer, this.normalizeAll(this.values(buffer)), () -> serialize(buffer, this.lang));
+        }
+    }
+
+    // a block that was grouped, and whose values were extracted (and normalized), by someone else, such as the NTriplesScanner
+    // its serialization may be null if there are no values, as it's never written then
+    public void block(String subject, List<String> values, @Nullable byte[] block, int statements) {
+        this.metrics.addTriples(statements);
+        if (!this.isSampled(subject)) {
+            return;
+        }
+        this.select(new TripleBuffer(subject), values, () -> block);
+    }
+
+    // writes the block to the fragments that are selected for its values
+    protected void select(TripleBuffer buffer, List<String> values, Supplier<byte[]> serializer) {
+        this.metrics.addBlock();
+        try {
+            // the block is serialized once, and the same bytes are written to each of its fragments
+            byte[] block = null;
+            Set<Long> hashes = new HashSet<>();
+            for ( List<String> tokens : this.selectFragments(values) ) {
+                long hash = this.hasher.hash(tokens);
+                if (hashes.add(hash)) {
+                    // token lists that only differ in empty tokens share a fragment
+                    if (block == null) {
+                        block = serializer.get();
                     }
+                    this.capacity.addBytes(hash, block.length);
+                    this.write(this.output, tokens, hash, block);
                 }
-            } catch (IOException ex) {
-                System.out.println("Error occurred while handling these statements:");
-                for ( Triple triple : this.buffer.getTriples() ) {
-                    PrintUtil.print(triple);
-                }
-                for ( Quad quad : this.buffer.getQuads() ) {
-                    PrintUtil.print(quad);
-                }
-                System.out.println("The error:");
-                ex.printStackTrace(System.out);
-                exit(1);
+                this.counters.addWritten(hash, 1);
+                this.output.counted(tokens, hash, this.counters);
             }
+        } catch (IOException ex) {
+            reportFailure(buffer, ex);
+        }
+    }
+
+    protected void write(FragmentOutput output, List<String> tokens, long hash, byte[] block) throws IOException {
+        long start = System.nanoTime();
+        output.write(tokens, hash, block);
+        this.metrics.addWriteNanos(System.nanoTime() - start);
+        this.metrics.addFragmentWrite();
+    }
+
+    protected static void writeBuffer(StreamRDF out, TripleBuffer buffer) {
+        for ( Triple triple : buffer.getTriples()) {
+            out.triple(triple);
+        }
+        for ( Quad quad : buffer.getQuads()) {
+            out.quad(quad);
         }
     }
 
+    protected static byte[] serialize(TripleBuffer buffer, Lang lang) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StreamRDF out = lang == Lang.NTRIPLES ? StreamRDFWriter.getWriterStream(bytes, lang) : new BlockWriter(bytes);
+        writeBuffer(out, buffer);
+        out.finish();
+        return bytes.toByteArray();
+    }
+
+    // the Turtle and TriG writer, but blank nodes are labelled after the nodes themselves, as the N-Triples writer does
+    // the usual writer numbers them from _:b0 for every block, which would merge those of the blocks that share a file
+    // these labels start with B, so they don't clash with the _:b<n> of the hypermedia controls in the same file either
+    static class BlockWriter extends WriterStreamRDFBlocks {
+        BlockWriter(OutputStream out) {
+            super(out, RIOT.getContext());
+            this.fmt = new NodeFormatterTTL(null, this.pMap, NodeToLabel.createBNodeByLabelEncoded());
+        }
+    }
+
+    protected static void reportFailure(TripleBuffer buffer, IOException ex) {
+        System.out.println("Error occurred while handling the statements of " + buffer.subject + ":");
+        for ( Triple triple : buffer.getTriples() ) {
+            PrintUtil.print(triple);
+        }
+        for ( Quad quad : buffer.getQuads() ) {
+            PrintUtil.print(quad);
+        }
+        System.out.println("The error:");
+        ex.printStackTrace(System.out);
+        exit(1);
+    }
+
     @Override
     public void triple(Triple triple) {
-        if (triple.getSubject().isURI()) {
+        this.metrics.addTriple();
+        if (triple.getSubject().isURI() && this.isSampled(triple.getSubject().getURI())) {
             String subject = triple.getSubject().getURI();
 
             if (this.buffer != null) {
@@ -144,7 +255,8 @@ class FragmentSink implements StreamRDF {
 
     @Override
     public void quad(Quad quad) {
-        if (quad.getSubject().isURI()) {
+        this.metrics.addTriple();
+        if (quad.getSubject().isURI() && this.isSampled(quad.getSubject().getURI())) {
             String subject = quad.getSubject().getURI();
 
             if (this.buffer != null) {
@@ -165,128 +277,148 @@ class FragmentSink implements StreamRDF {
         if (this.buffer != null) {
             this.flush();
         }
-
-        // flush all open file handles
-        for (StreamRDF out : this.outStreams.values()) {
-            out.finish();
-        }
+        // the output is finished by close, once the hypermedia controls are known
     }
 
-    private List<Integer> startingPositions(String value) {
-        boolean flagNext = true;
-        List<Integer> result = new ArrayList<>();
-        for (int i = 0; i < value.length(); i++) {
-            char c = value.charAt(i);
-            if (!Character.isLetter(c) && !Character.isDigit(c)) {
-                flagNext = true;
-            } else {
-                if (flagNext) {
-                    flagNext = false;
-                    result.add(i);
-                }
-            }
-        }
-        return result;
+    // completes all fragment files, ending them with their trailers
+    public void close(LongFunction<byte[]> trailers) {
+        finishOutput(this.output, trailers);
     }
 
-    private Set<List<String>> selectSubstrings(String value) {
-        Set<List<String>> substringSet = new HashSet<>();
-        String valueValue = value + " " + value;
-
-        outerLoop:
-        for (Integer start : this.startingPositions(value)) {
-            String currentSubstring = "";
-            for (int i = start; i < start + value.length(); i++) {
-                char newChar = valueValue.charAt(i);
-                currentSubstring += newChar;
-
-                if (newChar != ' ') {
-                    List<String> tokens = Arrays.asList(currentSubstring.strip().split("[^\\p{IsDigit}\\p{IsLetter}]+"));
-                    Long hash = this.hasher.hash(tokens);
-                    if (!this.counts.containsKey(hash)) {
-                        this.counts.put(hash, 0);
-                        this.written.put(hash, 0);
-                    }
+    protected FragmentOutput createOutput(FragmentOutput.Factory outputs) throws IOException {
+        return outputs.create();
+    }
 
-                    int written = this.written.get(hash);
-                    int count = this.counts.get(hash);
-                    this.counts.put(hash, count + 1);
+    protected List<FragmentOutput> getOutputs() {
+        return List.of(this.output);
+    }
 
-                    if (written < 100) {
-                        this.written.put(hash, written + 1);
-                        substringSet.add(tokens);
-                        continue outerLoop;
-                    }
-                }
-            }
+    // waits until every block that was given so far has been written
+    protected void drain() {
 
-            // Last resort, all tried fragments were full
-            List<String> tokens = Arrays.asList(currentSubstring.split(" "));
-            Long hash = this.hasher.hash(tokens);
-            if (!this.counts.containsKey(hash)) {
-                this.counts.put(hash, 0);
-                this.written.put(hash, 0);
-            }
+    }
 
-            int written = this.written.get(hash);
-            int count = this.counts.get(hash);
-            this.counts.put(hash, count + 1);
-            this.written.put(hash, written + 1);
-            substringSet.add(tokens);
+    // writes the state of the sink (and of its output) that the next blocks depend on
+    // has to be called between two subject blocks, by the thread that feeds the sink
+    public void checkpoint(DataOutputStream out) throws IOException {
+        if (this.buffer != null) {
+            this.flush();
+            this.buffer = null;
         }
+        this.drain();
 
-        return substringSet;
+        out.writeInt(this.charCount);
+        for (int i = 0; i < this.charCount; i++) {
+            out.writeChar(this.charOrder[i]);
+        }
+        writeCounters(this.counters, out);
+        writeCounters(this.capacity.getSizes(), out);
+        this.getChildIndex().write(out);
+        for (FragmentOutput output : this.getOutputs()) {
+            output.checkpoint(out);
+        }
     }
 
-    private Iterable<StreamRDF> getOutStreams(Iterable<String> values) throws IOException {
-        Set<List<String>> substringSet = new HashSet<>();
+    // continues from a checkpoint, before any blocks are given; returns the names of the files that are part of it
+    public List<String> resume(DataInputStream in) throws IOException {
+        int chars = in.readInt();
+        StringBuilder charOrder = new StringBuilder(chars);
+        for (int i = 0; i < chars; i++) {
+            charOrder.append(in.readChar());
+        }
+        this.registerCharacters(charOrder.toString());
+        readCounters(this.counters, in);
+        readCounters(this.capacity.getSizes(), in);
+        this.getChildIndex().read(in);
+
+        List<String> names = new ArrayList<>();
+        for (FragmentOutput output : this.getOutputs()) {
+            names.addAll(output.resume(in));
+        }
+        return names;
+    }
 
-        // remove diacritics
-        for ( String s : values) {
-            String cleanString = this.normalize(s);
+    public void discardCheckpoint() throws IOException {
+        for (FragmentOutput output : this.getOutputs()) {
+            output.discardCheckpoint();
+        }
+    }
 
-            // memorize all used characters so we can later piece together the hypermedia controls
-            this.registerCharacters(cleanString);
-            substringSet.addAll(this.selectSubstrings(cleanString));
+    protected static void writeCounters(PrefixCounters counters, DataOutputStream out) throws IOException {
+        out.writeInt(counters.size());
+        try {
+            counters.forEach((hash, count, written) -> {
+                try {
+                    out.writeLong(hash);
+                    out.writeInt(count);
+                    out.writeInt(written);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+    }
 
-        ArrayList<StreamRDF> result = new ArrayList<>();
+    protected static void readCounters(PrefixCounters counters, DataInputStream in) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            counters.put(in.readLong(), in.readInt(), in.readInt());
+        }
+    }
 
-        for ( List<String> tokens : substringSet ) {
-            Long hash = this.hasher.hash(tokens);
-            result.add(this.getOutStream(tokens, hash));
-            int written = this.written.get(hash);
-            this.written.put(hash, written + 1);
+    protected static void finishOutput(FragmentOutput output, LongFunction<byte[]> trailers) {
+        try {
+            output.finish(trailers);
+        } catch (IOException ex) {
+            System.out.println("Error occurred while finishing the fragments:");
+            ex.printStackTrace(System.out);
+            exit(1);
         }
+    }
 
+    // remove diacritics
+    protected List<String> normalizeAll(Iterable<String> values) {
+        List<String> result = new ArrayList<>();
+        for ( String s : values) {
+            result.add(this.normalizer.normalize(s));
+        }
         return result;
     }
 
-    private void registerCharacters(String s) {
-        for (char c : s.toCharArray()) {
-            this.charSet.add(c);
+    // has to be called in the order of the input, as the selected fragments depend on all the previous ones
+    protected Set<List<String>> selectFragments(List<String> cleanValues) {
+        long start = System.nanoTime();
+        long evaluated = this.enumerator.getEvaluated();
+        Set<List<String>> substringSet = new HashSet<>();
+
+        for ( String cleanString : cleanValues) {
+            // memorize all used characters so we can later piece together the hypermedia controls
+            this.registerCharacters(cleanString);
+            substringSet.addAll(this.enumerator.select(cleanString));
         }
-    }
 
-    private StreamRDF getOutStream(List<String> tokens, Long hash) throws IOException {
-        if (!this.outStreams.containsKey(hash)) {
-            java.util.Collections.sort(tokens);
+        this.metrics.addSubstrings(this.enumerator.getEvaluated() - evaluated);
+        this.metrics.addSelectionNanos(System.nanoTime() - start);
+        return substringSet;
+    }
 
-            Path filePath = this.outDirPath.resolve(String.join("+", tokens) + this.extension);
-            OutputStream fileWriter = new FileOutputStream(String.valueOf(filePath), true);
-            StreamRDF rdfWriter;
-            if (this.extension == ".trig") {
-                rdfWriter = StreamRDFWriter.getWriterStream(fileWriter, Lang.TRIG);
-            } else {
-                rdfWriter = StreamRDFWriter.getWriterStream(fileWriter, Lang.TURTLE);
+    private void registerCharacters(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            long bit = 1L << c;
+            if ((this.seenChars[c >>> 6] & bit) == 0) {
+                this.seenChars[c >>> 6] |= bit;
+                if (this.charCount == this.charOrder.length) {
+                    this.charOrder = Arrays.copyOf(this.charOrder, 2 * this.charCount);
+                }
+                this.charOrder[this.charCount++] = c;
             }
-            this.outStreams.put(hash, rdfWriter);
         }
-
-        return this.outStreams.get(hash);
     }
 
-    private String normalize(String original) {
+    protected static String normalize(String original) {
         String reduced = original.toLowerCase();
 
         // normalize unicode string
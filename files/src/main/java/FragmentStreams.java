@@ -0,0 +1,212 @@
+package main.java;
+
+import java.io.IOException;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+// the fragment files of a sink, written behind through a limited pool of file handles
+// each fragment collects references to its (serialized) subject blocks, which are written to disk in one gathering write
+// when there are enough of them, when they have been waiting for too long, or when all buffers together use too much memory
+// blocks can be concatenated because their blank node labels are unique across the task (see FragmentSink.BlockWriter)
+class FragmentStreams implements FragmentOutput {
+    protected static final int FLUSH_BYTES = 64 * 1024;                   // write a fragment's buffer once it's this large
+    protected static final long MAX_AGE_NANOS = 30L * 1000 * 1000 * 1000; // or once it's been waiting for this long
+
+    protected final HandlePool handles;
+    protected final Map<Long, Fragment> fragments;       // every fragment that was written to
+    protected final LinkedHashMap<Long, Fragment> dirty; // fragments with buffered data, the oldest first
+    protected final Path outDirPath;
+    protected final String extension;
+    protected final byte[] separator;
+    protected final Budget memory;   // caps the buffered bytes
+    protected final Consumer<Path> completed;
+    protected long buffered;  // bytes waiting in all buffers
+    protected long writes;
+
+    FragmentStreams(Budget handles, Path outDirPath, String extension, Budget memory, Consumer<Path> completed, TaskMetrics metrics) {
+        this.handles = new HandlePool(handles, metrics);
+        this.fragments = new HashMap<>();
+        this.dirty = new LinkedHashMap<>();
+        this.outDirPath = outDirPath;
+        this.extension = extension;
+        this.separator = FragmentOutput.separator(extension);
+        this.memory = memory;
+        this.memory.join();
+        this.completed = completed;
+        this.buffered = 0;
+        this.writes = 0;
+    }
+
+    @Override
+    public void write(List<String> tokens, long hash, byte[] block) throws IOException {
+        Fragment fragment = this.fragments.get(hash);
+        if (fragment == null) {
+            fragment = new Fragment(String.join("+", tokens) + this.extension);
+            this.fragments.put(hash, fragment);
+        }
+
+        if (fragment.size == 0) {
+            fragment.since = System.nanoTime();
+            this.dirty.put(hash, fragment);
+        }
+        if (fragment.started || fragment.size > 0) {
+            this.buffered += fragment.append(this.separator);
+        }
+        this.buffered += fragment.append(block);
+
+        if (fragment.size >= FLUSH_BYTES) {
+            this.flush(hash, fragment);
+            this.dirty.remove(hash);
+        } else if (this.buffered > this.memory.share()) {
+            // free up half of the memory in one go, starting with the buffers that have been waiting the longest
+            this.flushOldest(this.memory.share() / 2, Long.MIN_VALUE);
+        }
+
+        if (++this.writes % 1024 == 0) {
+            this.flushOldest(Long.MAX_VALUE, System.nanoTime() - MAX_AGE_NANOS);
+        }
+    }
+
+    // flushes the oldest buffers, until the buffered bytes are below the limit and the remaining buffers are newer than `before`
+    protected void flushOldest(long limit, long before) throws IOException {
+        Iterator<Map.Entry<Long, Fragment>> iterator = this.dirty.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Fragment> entry = iterator.next();
+            if (this.buffered <= limit && entry.getValue().since > before) {
+                break;
+            }
+            this.flush(entry.getKey(), entry.getValue());
+            iterator.remove();
+        }
+    }
+
+    protected void flush(long hash, Fragment fragment) throws IOException {
+        Path filePath = this.outDirPath.resolve(fragment.name);
+        ByteBuffer[] data = new ByteBuffer[fragment.chunks.size()];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = ByteBuffer.wrap(fragment.chunks.get(i));
+        }
+        this.writeFile(hash, filePath, fragment.started, data);
+
+        this.buffered -= fragment.size;
+        fragment.length += fragment.size;
+        fragment.started = true;
+        fragment.chunks = null;
+        fragment.size = 0;
+    }
+
+    protected void writeFile(long hash, Path filePath, boolean reopen, ByteBuffer[] data) throws IOException {
+        this.handles.write(hash, filePath, reopen, data);
+    }
+
+    // write all buffers, and close all file handles
+    @Override
+    public void finish(LongFunction<byte[]> trailers) throws IOException {
+        // the trailers are added to the buffers, so they are part of each fragment's last write
+        // if none of a fragment's data was written yet, that's the only one
+        for (Map.Entry<Long, Fragment> entry : this.fragments.entrySet()) {
+            byte[] trailer = trailers.apply(entry.getKey());
+            if (trailer != null) {
+                Fragment fragment = entry.getValue();
+                if (fragment.size == 0) {
+                    this.dirty.put(entry.getKey(), fragment);
+                }
+                this.buffered += fragment.append(trailer);
+            }
+        }
+
+        // fragments without buffered data are complete already, the others are after their last write
+        for (Fragment fragment : this.fragments.values()) {
+            if (fragment.size == 0) {
+                this.completed.accept(this.outDirPath.resolve(fragment.name));
+            }
+        }
+        Iterator<Map.Entry<Long, Fragment>> iterator = this.dirty.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Fragment> entry = iterator.next();
+            this.flush(entry.getKey(), entry.getValue());
+            this.completed.accept(this.outDirPath.resolve(entry.getValue().name));
+            iterator.remove();
+        }
+        this.handles.closeAll();
+        this.memory.leave();
+        System.out.println("File handles: " + this.handles.summary());
+    }
+
+    // every buffer is written, so each file holds exactly the data of its fragment so far
+    @Override
+    public void checkpoint(DataOutputStream out) throws IOException {
+        for (Map.Entry<Long, Fragment> entry : this.dirty.entrySet()) {
+            this.flush(entry.getKey(), entry.getValue());
+        }
+        this.dirty.clear();
+
+        out.writeInt(this.fragments.size());
+        for (Map.Entry<Long, Fragment> entry : this.fragments.entrySet()) {
+            out.writeLong(entry.getKey());
+            out.writeUTF(entry.getValue().name);
+            out.writeLong(entry.getValue().length);
+        }
+    }
+
+    // data that was appended after the checkpoint is cut off again
+    @Override
+    public List<String> resume(DataInputStream in) throws IOException {
+        List<String> names = new ArrayList<>();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            long hash = in.readLong();
+            Fragment fragment = new Fragment(in.readUTF());
+            fragment.length = in.readLong();
+            fragment.started = true;
+
+            Path filePath = this.outDirPath.resolve(fragment.name);
+            try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.WRITE)) {
+                if (channel.size() < fragment.length) {
+                    throw new IOException(filePath + " is shorter than it was at the checkpoint");
+                }
+                channel.truncate(fragment.length);
+            }
+            this.fragments.put(hash, fragment);
+            names.add(fragment.name);
+        }
+        return names;
+    }
+
+    public HandlePool getHandles() {
+        return this.handles;
+    }
+
+    static class Fragment {
+        final String name;
+        boolean started;     // some of the fragment has been written to disk already
+        long length;         // bytes written to disk
+        List<byte[]> chunks; // shared with the other fragments of the same blocks, never modified
+        int size;
+        long since;      // when the data started waiting
+
+        Fragment(String name) {
+            this.name = name;
+            this.started = false;
+            this.chunks = null;
+            this.size = 0;
+        }
+
+        // returns how many bytes were added; shared blocks are counted for every fragment they're in
+        int append(byte[] bytes) {
+            if (this.chunks == null) {
+                this.chunks = new ArrayList<>();
+            }
+            this.chunks.add(bytes);
+            this.size += bytes.length;
+            return bytes.length;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package main.java;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// the output directory of a staged task: every run writes a new generation `.<name>.g<number>` next to the one that's
+// served, and `outDir/<name>` is a symbolic link to the latest one that's complete
+// the link is replaced in one atomic rename once the new generation is done, so the server never sees a half-written
+// directory; the previous generation is removed in the background afterwards
+class Generations {
+    protected final Path linkPath;          // outDir/<name>
+    protected final Pattern pattern;
+    protected final DirectoryRemover remover;
+    @Nullable
+    protected final Path published;         // the generation that's served, or the directory of an unstaged run
+    protected final Path staging;
+
+    Generations(Path linkPath, DirectoryRemover remover) throws IOException {
+        this.linkPath = linkPath;
+        this.pattern = pattern(linkPath);
+        this.remover = remover;
+
+        long number = 0;
+        if (Files.isSymbolicLink(linkPath)) {
+            this.published = linkPath.resolveSibling(Files.readSymbolicLink(linkPath));
+            Matcher matcher = this.pattern.matcher(this.published.getFileName().toString());
+            if (matcher.matches()) {
+                number = Long.parseLong(matcher.group(1));
+            }
+        } else if (Files.isDirectory(linkPath)) {
+            this.published = linkPath;
+        } else {
+            this.published = null;
+        }
+        // an interrupted run of the next generation used the same directory, so it can continue from a checkpoint
+        this.staging = linkPath.resolveSibling("." + linkPath.getFileName() + ".g" + (number + 1));
+    }
+
+    // the directory of the previous run, if there's one
+    @Nullable
+    public Path getPublished() {
+        return this.published;
+    }
+
+    // the name of the generation that's served, null if there's none or if it was made by an unstaged run
+    @Nullable
+    public String getPublishedGeneration() {
+        if (this.published == null || !this.pattern.matcher(this.published.getFileName().toString()).matches()) {
+            return null;
+        }
+        return this.published.getFileName().toString();
+    }
+
+    public Path getStaging() {
+        return this.staging;
+    }
+
+    public String getStagingGeneration() {
+        return this.staging.getFileName().toString();
+    }
+
+    // clears out the generations that aren't served, and starts the new one
+    // one that an interrupted run left behind is cleared as well, unless the run continues from its checkpoint
+    public void prepare(boolean resume) throws IOException {
+        Files.createDirectories(this.linkPath.getParent());
+        this.removeGenerations(resume ? this.staging : null);
+        Files.createDirectories(this.staging);
+    }
+
+    // serves the new generation instead of the previous one
+    public void publish() throws IOException {
+        Path link = this.linkPath.resolveSibling("." + this.linkPath.getFileName() + ".link");
+        Files.deleteIfExists(link);
+        Files.createSymbolicLink(link, this.staging.getFileName()); // relative, so it works wherever the volume is mounted
+
+        if (this.linkPath.equals(this.published)) {
+            // a directory can't be replaced by a link in one go, so it's moved out of the way first
+            this.remover.remove(this.linkPath);
+        }
+        Files.move(link, this.linkPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        this.removeGenerations(this.staging);
+    }
+
+    // removes the generations besides the one that's served and `keep`
+    protected void removeGenerations(@Nullable Path keep) throws IOException {
+        List<Path> kept = new ArrayList<>();
+        if (Files.isSymbolicLink(this.linkPath)) {
+            kept.add(this.linkPath.resolveSibling(Files.readSymbolicLink(this.linkPath)));
+        }
+        if (keep != null) {
+            kept.add(keep);
+        }
+        removeGenerations(this.linkPath, this.pattern, this.remover, kept);
+    }
+
+    protected static void removeGenerations(Path linkPath, Pattern pattern, DirectoryRemover remover, List<Path> kept) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(linkPath.getParent())) {
+            for (Path entry : entries) {
+                if (pattern.matcher(entry.getFileName().toString()).matches() && !kept.contains(entry)) {
+                    remover.remove(entry);
+                }
+            }
+        }
+    }
+
+    protected static Pattern pattern(Path linkPath) {
+        return Pattern.compile(Pattern.quote("." + linkPath.getFileName() + ".g") + "(\\d+)");
+    }
+
+    // for a run that isn't staged: the previous output is removed, along with the generations of earlier staged runs
+    public static void clear(Path linkPath, DirectoryRemover remover) throws IOException {
+        remover.remove(linkPath);
+        if (Files.isDirectory(linkPath.getParent(), LinkOption.NOFOLLOW_LINKS)) {
+            removeGenerations(linkPath, pattern(linkPath), remover, List.of());
+        }
+    }
+}
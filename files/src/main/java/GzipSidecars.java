@@ -0,0 +1,103 @@
+package main.java;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static java.lang.System.exit;
+
+// writes a precompressed copy next to every finished fragment, for nginx' gzip_static
+// compression runs on a bounded pool while the remaining fragments are still being written
+// when the pool falls behind, the thread that finished the fragment compresses it itself
+class GzipSidecars {
+    protected static final int MIN_LENGTH = 256; // gzip_min_length in server/nginx.conf, smaller files are sent as they are
+
+    protected final ThreadPoolExecutor pool;
+    protected final AtomicLong files;
+    protected final AtomicLong skipped;
+    protected final AtomicLong originalBytes;
+    protected final AtomicLong compressedBytes;
+    protected final AtomicLong nanos;  // summed over all threads, most of it overlaps with writing the fragments
+
+    GzipSidecars(int threads) {
+        int poolSize = Math.max(1, threads);
+        this.pool = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                0,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(64 * poolSize),
+                new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        this.files = new AtomicLong();
+        this.skipped = new AtomicLong();
+        this.originalBytes = new AtomicLong();
+        this.compressedBytes = new AtomicLong();
+        this.nanos = new AtomicLong();
+    }
+
+    // the file must be complete, nothing can be written to it anymore
+    public void add(Path filePath) {
+        this.pool.execute(() -> this.compress(filePath));
+    }
+
+    protected void compress(Path filePath) {
+        long start = System.nanoTime();
+        Path gzipPath = filePath.resolveSibling(filePath.getFileName() + ".gz");
+        try {
+            long size = Files.size(filePath);
+            if (size < MIN_LENGTH) {
+                this.skipped.incrementAndGet();
+                return;
+            }
+
+            try (InputStream in = Files.newInputStream(filePath);
+                 OutputStream out = new MaxGZIPOutputStream(Files.newOutputStream(gzipPath))) {
+                in.transferTo(out);
+            }
+            this.files.incrementAndGet();
+            this.originalBytes.addAndGet(size);
+            this.compressedBytes.addAndGet(Files.size(gzipPath));
+        } catch (IOException ex) {
+            System.out.println("Error occurred while compressing " + filePath + ":");
+            ex.printStackTrace(System.out);
+            exit(1);
+        } finally {
+            this.nanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    // waits for all files to be compressed
+    public void finish() {
+        long start = System.nanoTime();
+        this.pool.shutdown();
+        try {
+            this.pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        System.out.println("Compressed: " + this.summary() + ", "
+                + String.format("%.1f", (System.nanoTime() - start) / 1e9) + "s waited for after writing");
+    }
+
+    public String summary() {
+        double ratio = this.originalBytes.get() == 0 ? 1 : (double) this.compressedBytes.get() / this.originalBytes.get();
+        return this.files.get() + " files, " + this.originalBytes.get() + " -> " + this.compressedBytes.get()
+                + " bytes (" + String.format("%.1f", 100 * ratio) + "%), " + this.skipped.get() + " files too small, "
+                + String.format("%.1f", this.nanos.get() / 1e9) + "s spent";
+    }
+
+    static class MaxGZIPOutputStream extends GZIPOutputStream {
+        MaxGZIPOutputStream(OutputStream out) throws IOException {
+            super(out, 1 << 16);
+            this.def.setLevel(Deflater.BEST_COMPRESSION);
+        }
+    }
+}
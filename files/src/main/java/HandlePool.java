@@ -0,0 +1,98 @@
+package main.java;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// a limited number of open file handles, evicting the least recently used one when a new one is needed
+// the limit is this pool's share of a budget, which shrinks and grows as other pools are opened and closed
+// also keeps track of how the handles are used, so maxFileHandles can be tuned
+class HandlePool {
+    protected final Budget budget;
+    protected final TaskMetrics metrics;
+    protected final LinkedHashMap<Long, FileChannel> handles;
+
+    protected long opens;
+    protected long reopens;
+    protected long evictions;
+    protected long bytesWritten;
+
+    HandlePool(Budget budget, TaskMetrics metrics) {
+        this.budget = budget;
+        this.metrics = metrics;
+        this.budget.join();
+        this.handles = new LinkedHashMap<>(16, 0.75f, true); // access order, so the eldest entry is the least recently used
+    }
+
+    // appends all bytes to the file; `reopen` tells whether this file has been opened before
+    public void write(long key, Path path, boolean reopen, ByteBuffer[] data) throws IOException {
+        FileChannel channel = this.handles.get(key);
+        if (channel == null) {
+            channel = this.open(key, path, reopen);
+        }
+
+        long remaining = 0;
+        for (ByteBuffer buffer : data) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            long written = channel.write(data);
+            remaining -= written;
+            this.bytesWritten += written;
+        }
+    }
+
+    protected FileChannel open(long key, Path path, boolean reopen) throws IOException {
+        // evicts more than one handle if the share got smaller in the meantime
+        Iterator<Map.Entry<Long, FileChannel>> eldest = this.handles.entrySet().iterator();
+        while (this.handles.size() >= Math.max(1, this.budget.share())) {
+            eldest.next().getValue().close();
+            eldest.remove();
+            this.evictions += 1;
+            this.metrics.addHandleEviction();
+        }
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.handles.put(key, channel);
+        this.opens += 1;
+        this.metrics.addHandleOpen();
+        if (reopen) {
+            this.reopens += 1;
+        }
+        return channel;
+    }
+
+    public void closeAll() throws IOException {
+        for (FileChannel channel : this.handles.values()) {
+            channel.close();
+        }
+        this.handles.clear();
+        this.budget.leave();
+    }
+
+    public long getOpens() {
+        return this.opens;
+    }
+
+    public long getReopens() {
+        return this.reopens;
+    }
+
+    public long getEvictions() {
+        return this.evictions;
+    }
+
+    public long getBytesWritten() {
+        return this.bytesWritten;
+    }
+
+    public String summary() {
+        return this.opens + " opens, " + this.reopens + " reopens, " + this.evictions + " evictions, "
+                + this.bytesWritten + " bytes written";
+    }
+}
@@ -1,26 +1,109 @@
 package main.java;
 
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
-
-import java.nio.charset.StandardCharsets;
-import java.util.List;
+import java.util.*;
 
+// hashes prefixes, i.e. lists of tokens, independent of their order
+// the hashes only depend on the constants below, so they are stable across runs and machines
+// changing any of them invalidates all state that was stored in between runs
 public class Hasher {
-    protected final HashFunction hasher;
+    // FNV-1a parameters, applied to UTF-16 chars instead of bytes
+    protected static final long OFFSET = 0xcbf29ce484222325L;
+    protected static final long PRIME = 0x100000001b3L;
+
+    // first token list that was seen for each hash, only kept when auditing
+    protected final Map<Long, List<String>> seen;
+    protected final Set<Long> conflicting;
+    protected final List<String> conflicts;
 
     Hasher() {
-        this.hasher = Hashing.goodFastHash(64); // used to hash prefixes
+        this(false);
+    }
+
+    Hasher(boolean audit) {
+        this.seen = audit ? new HashMap<>() : null;
+        this.conflicting = new HashSet<>();
+        this.conflicts = new ArrayList<>();
+    }
+
+    // prefixes are hashed token by token, and each token char by char
+    // this allows callers to extend a token's hash without rehashing the token as a whole
+    public long startToken() {
+        return OFFSET;
+    }
+
+    public long extendToken(long state, char c) {
+        return (state ^ c) * PRIME;
     }
 
+    public long finishToken(long state) {
+        // murmur3 finalizer; spreads the bits before the hashes are summed
+        state ^= state >>> 33;
+        state *= 0xff51afd7ed558ccdL;
+        state ^= state >>> 33;
+        state *= 0xc4ceb9fe1a85ec53L;
+        state ^= state >>> 33;
+        return state;
+    }
+
+    public long hashToken(CharSequence token) {
+        return this.finishToken(this.tokenState(token));
+    }
+
+    // the state of a token before it is finished, which can still be extended
+    public long tokenState(CharSequence token) {
+        long state = this.startToken();
+        for (int i = 0; i < token.length(); i++) {
+            state = this.extendToken(state, token.charAt(i));
+        }
+        return state;
+    }
+
+    // token hashes are combined by summing them, so the order of the tokens doesn't matter
+    // empty tokens don't contribute anything
     public long hash(List<String> values) {
-        java.util.Collections.sort(values);
         long result = 0;
         for ( String s : values) {
             if (s.length() > 0) {
-                result += this.hasher.hashString(s, StandardCharsets.UTF_8).asLong();
+                result += this.hashToken(s);
             }
         }
         return result;
     }
+
+    public boolean isAuditing() {
+        return this.seen != null;
+    }
+
+    // remembers which tokens produced this hash, and records a conflict if other tokens did so before
+    public void audit(long hash, List<String> tokens) {
+        if (this.seen == null) {
+            return;
+        }
+
+        List<String> sorted = new ArrayList<>();
+        for (String token : tokens) {
+            if (token.length() > 0) {
+                sorted.add(token);
+            }
+        }
+        Collections.sort(sorted);
+
+        List<String> first = this.seen.putIfAbsent(hash, sorted);
+        if (first != null && !first.equals(sorted) && this.conflicting.add(hash)) {
+            if (this.conflicts.size() < 20) {
+                this.conflicts.add(Long.toHexString(hash) + ": " + first + " <> " + sorted);
+            }
+        }
+    }
+
+    public void report() {
+        if (this.seen == null) {
+            return;
+        }
+
+        System.out.println("Hash collisions: " + this.conflicting.size() + " in " + this.seen.size() + " distinct hashes");
+        for (String conflict : this.conflicts) {
+            System.out.println("  " + conflict);
+        }
+    }
 }
@@ -4,185 +4,282 @@ import org.apache.jena.datatypes.TypeMapper;
 import org.apache.jena.graph.Node;
 import org.apache.jena.graph.NodeFactory;
 import org.apache.jena.graph.Triple;
-import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.system.StreamRDF;
 import org.apache.jena.riot.system.StreamRDFWriter;
 
-import java.io.FileOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 public class HypermediaControls {
+    // define some Node objects we'll need
+    // this is probably not the most idiomatic way
+    protected static final Node subsetPredicate = NodeFactory.createURI("http://rdfs.org/ns/void#subset");
+    protected static final Node relationPredicate = NodeFactory.createURI("https://w3id.org/tree#relation");
+    protected static final Node typePredicate = NodeFactory.createURI("http://www.w3.org/1999/02/22-rdf-syntax-ns#type");
+    protected static final Node nodePredicate = NodeFactory.createURI("https://w3id.org/tree#node");
+    protected static final Node valuePredicate = NodeFactory.createURI("https://w3id.org/tree#value");
+    protected static final Node remainingPredicate = NodeFactory.createURI("https://w3id.org/tree#remainingItems");
+    protected static final Node treePathPredicate = NodeFactory.createURI("https://w3id.org/tree#path");
+    protected static final Node treeShapePredicate = NodeFactory.createURI("https://w3id.org/tree#shape");
+    protected static final Node shaclPropertyPredicate = NodeFactory.createURI("http://www.w3.org/ns/shacl#property");
+    protected static final Node shaclPathPredicate = NodeFactory.createURI("http://www.w3.org/ns/shacl#path");
+    protected static final Node shaclMinCountPredicate = NodeFactory.createURI("http://www.w3.org/ns/shacl#minCount");
+    protected static final Node alternatePathPredicate = NodeFactory.createURI("http://www.w3.org/ns/shacl#alternativePath");
+    protected static final Node relationObject = NodeFactory.createURI("https://w3id.org/tree#SubstringRelation");
+    protected static final Node shaclPatternPredicate = NodeFactory.createURI("http://www.w3.org/ns/shacl#pattern");
+    protected static final Node shaclFlagsPredicate = NodeFactory.createURI("http://www.w3.org/ns/shacl#flags");
+
     protected final List<Node> properties;
-    protected final Map<Long, Integer> counts;
-    protected final Map<Long, Integer> written;
+    protected final PrefixCounters counters;
+    protected final FragmentCapacity capacity;
+    protected final ChildIndex children;
     protected final Path outDirPath;
-    protected final Set<Character> charSet;
+    protected final int[] charRanks; // position of each char in the char set, -1 if it isn't in there
     protected final Hasher hasher;
     protected final String extension;
+    protected final int parallelism;
+
+    // the serialized controls of every non-leaf node, until they are written along with the node's data
+    protected final Map<Long, Controls> pending;
+
+    // how many remainingItems values were written, and how many of them are estimates
+    protected final AtomicLong remainingItems;
+    protected final AtomicLong estimatedItems;
 
     HypermediaControls(
             List<Node> properties,
-            Map<Long, Integer> counts,
-            Map<Long, Integer> written,
+            PrefixCounters counters,
+            FragmentCapacity capacity,
+            ChildIndex children,
             Hasher hasher,
             Path outDirPath,
             Set<Character> charSet,
-            String extension
+            String extension,
+            int parallelism
     ) {
         this.properties = properties;
-        this.counts = counts;
-        this.written = written;
+        this.counters = counters;
+        this.capacity = capacity;
+        this.children = children;
         this.outDirPath = outDirPath; // root location to write to
-        this.charSet = charSet;
         this.hasher = hasher;
         this.extension = extension;
+        this.parallelism = Math.max(1, parallelism);
+        this.pending = new ConcurrentHashMap<>();
+        this.remainingItems = new AtomicLong();
+        this.estimatedItems = new AtomicLong();
+
+        // children are linked in the order of the char set, as they were when they were found by trying every char
+        this.charRanks = new int[Character.MAX_VALUE + 1];
+        Arrays.fill(this.charRanks, -1);
+        int rank = 0;
+        for (char c : charSet) {
+            this.charRanks[c] = rank++;
+        }
     }
 
+    // the children of a prefix: all of its tokens extended by one char, followed by all new tokens of one char
     public List<List<String>> expandTokens(List<String> given) {
-        List<List<String>> result = new ArrayList<>();
-        for ( int i = 0; i < given.size(); i++) {
-            for(char c : this.charSet ) {
-                String replacementToken = given.get(i) + c;
+        long[] states = new long[given.size()];
+        for (int i = 0; i < given.size(); i++) {
+            states[i] = this.hasher.tokenState(given.get(i));
+        }
+
+        // sorted by (extended token, char rank)
+        SortedMap<Long, List<String>> result = new TreeMap<>();
+        long hash = this.hasher.hash(given);
+        for (long e = this.children.start(hash), end = this.children.end(hash); e < end; e++) {
+            char c = this.children.getChar(e);
+            if (this.charRanks[c] < 0) {
+                continue;
+            }
+
+            long state = this.children.getState(e);
+            if (state == this.hasher.startToken()) {
                 List<String> tokens = new ArrayList<>(given);
-                tokens.set(i, replacementToken);
-                result.add(tokens);
+                tokens.add("" + c);
+                Collections.sort(tokens);
+                result.put(((long) given.size() << 32) | this.charRanks[c], tokens);
+                continue;
+            }
+
+            // a prefix can contain the same token more than once, each of them is extended separately
+            for (int i = 0; i < given.size(); i++) {
+                if (states[i] == state) {
+                    List<String> tokens = new ArrayList<>(given);
+                    tokens.set(i, given.get(i) + c);
+                    Collections.sort(tokens);
+                    result.put(((long) i << 32) | this.charRanks[c], tokens);
+                }
             }
         }
-        for (char c:this.charSet) {
-            List<String> tokens = new ArrayList<>(given);
-            tokens.add("" + c);
-            result.add(tokens);
-        }
-        return result;
+        return new ArrayList<>(result.values());
     }
 
     public void addHypermedia(String root) throws IOException {
-        // define some Node objects we'll need
-        // this is probably not the most idiomatic way
-        Node subsetPredicate = NodeFactory.createURI("http://rdfs.org/ns/void#subset");
-        Node relationPredicate = NodeFactory.createURI("https://w3id.org/tree#relation");
-        Node typePredicate = NodeFactory.createURI("http://www.w3.org/1999/02/22-rdf-syntax-ns#type");
-        Node nodePredicate = NodeFactory.createURI("https://w3id.org/tree#node");
-        Node valuePredicate = NodeFactory.createURI("https://w3id.org/tree#value");
-        Node remainingPredicate = NodeFactory.createURI("https://w3id.org/tree#remainingItems");
-        Node treePathPredicate = NodeFactory.createURI("https://w3id.org/tree#path");
-        Node treeShapePredicate = NodeFactory.createURI("https://w3id.org/tree#shape");
-        Node shaclPropertyPredicate = NodeFactory.createURI("http://www.w3.org/ns/shacl#property");
-        Node shaclPathPredicate = NodeFactory.createURI("http://www.w3.org/ns/shacl#path");
-        Node shaclMinCountPredicate = NodeFactory.createURI("http://www.w3.org/ns/shacl#minCount");
-        Node alternatePathPredicate = NodeFactory.createURI("http://www.w3.org/ns/shacl#alternativePath");
-        Node relationObject = NodeFactory.createURI("https://w3id.org/tree#SubstringRelation");
-        Node shaclPatternPredicate = NodeFactory.createURI("http://www.w3.org/ns/shacl#pattern");
-        Node shaclFlagsPredicate = NodeFactory.createURI("http://www.w3.org/ns/shacl#flags");
-        Node rootNode = NodeFactory.createURI(root);
-
         // memorizing all prefixes requires an impossible amount of memory
         // so we store all hashed prefixes, but this is not reversible
-        // we enumerate 'all' prefixes instead, using the counts to verify each prefix's existence
-        Deque<List<String>> queue = new LinkedList<>();
-        List<String> start = new ArrayList<>();
-        queue.add(start);
+        // the fragmentation recorded which prefixes extend which, so we walk those relations breadth first
+        // every level is processed in parallel; the next level is put together in order, so the output is deterministic
+        // the controls are only serialized here, the fragment outputs write them when they finish each fragment
+        this.children.seal();
+        List<List<String>> level = new ArrayList<>();
+        level.add(new ArrayList<>());
+        Set<Long> visited = new HashSet<>();
+        visited.add(this.hasher.hash(level.get(0)));
 
         // for logging purposes, remember the largest fragment
         int mostWrittenCount = -1;
         List<String> mostWrittenPrefix = new ArrayList<>();
 
-        while (queue.size() > 0) {
-            List<String> current = queue.pop();
-            Path filePath;
-            Node thisNode;
-
-            // root node is hard coded
-            if (current.size() == 0) {
-                filePath = this.outDirPath.resolve(".root" + this.extension);
-                thisNode = NodeFactory.createURI(root);
-            } else {
-                String identifier = String.join("+", current);
-                filePath = this.outDirPath.resolve(identifier + this.extension);
-                thisNode = NodeFactory.createURI(root + identifier + this.extension);
-            }
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            while (level.size() > 0) {
+                List<List<String>> current = level;
+                List<List<List<String>>> expanded = pool.submit(() -> current.parallelStream()
+                        .map(prefix -> this.visit(root, prefix))
+                        .collect(Collectors.toList())
+                ).get();
 
-            // add hypermedia controls to all non-leaf nodes
-            long currentHash = this.hasher.hash(current);
-            if (this.written.containsKey(currentHash)) {
-                int currentWrittenCount = this.written.get(currentHash);
-                if (mostWrittenCount < 0 || currentWrittenCount > mostWrittenCount) {
-                    mostWrittenCount = currentWrittenCount;
-                    mostWrittenPrefix = current;
+                level = new ArrayList<>();
+                for (int i = 0; i < current.size(); i++) {
+                    long currentHash = this.hasher.hash(current.get(i));
+                    if (this.counters.contains(currentHash)) {
+                        int currentWrittenCount = this.counters.getWritten(currentHash);
+                        if (mostWrittenCount < 0 || currentWrittenCount > mostWrittenCount) {
+                            mostWrittenCount = currentWrittenCount;
+                            mostWrittenPrefix = current.get(i);
+                        }
+                    }
+
+                    // a prefix can be reached through each of its parents, but it only has to be visited once
+                    for (List<String> next : expanded.get(i)) {
+                        long nextHash = this.hasher.hash(next);
+                        this.hasher.audit(nextHash, next);
+                        if (visited.add(nextHash)) {
+                            level.add(next);
+                        }
+                    }
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
 
-            if (current.size() == 0 || this.counts.get(currentHash) > 100) {
-                OutputStream fileWriter = new FileOutputStream(String.valueOf(filePath), true);
-                StreamRDF out;
-                if (this.extension == ".trig") {
-                    out = StreamRDFWriter.getWriterStream(fileWriter, Lang.TRIG);
-                } else {
-                    out = StreamRDFWriter.getWriterStream(fileWriter, Lang.TURTLE);
-                }
+        System.out.println("Fullest page: " + mostWrittenPrefix + " @ " + mostWrittenCount);
+        if (this.estimatedItems.get() > 0) {
+            System.out.println("Estimated remainingItems: " + this.estimatedItems.get() + " of " + this.remainingItems.get());
+        }
+    }
 
-                // define this page as a subset of the collection as a whole
-                out.triple(Triple.create(rootNode, subsetPredicate, thisNode));
-
-                // create a shacl path object that defines which properties are contained in this dataset
-                Node pathNode;
-                if (this.properties.size() > 1) {
-                    pathNode = NodeFactory.createBlankNode("path_node");
-                    Node listNode = this.writeList(this.properties, out,"propertylist");
-                    out.triple(Triple.create(pathNode, alternatePathPredicate, listNode));
-                } else {
-                    pathNode = this.properties.get(0);
-                }
+    // the controls of the fragment with the given hash, if it has any; they are handed out only once
+    public byte[] take(long hash) {
+        Controls controls = this.pending.remove(hash);
+        return controls == null ? null : controls.data;
+    }
 
-                // link the previously-defined shacl path to the dataset
-                // this communicates to clients which data can be found here
-                Node shapeNode = NodeFactory.createBlankNode("shape_node");
-                out.triple(Triple.create(rootNode, treeShapePredicate, shapeNode));
-                Node propertyNode = NodeFactory.createBlankNode("property_node");
-                out.triple(Triple.create(shapeNode, shaclPropertyPredicate, propertyNode));
-                out.triple(Triple.create(propertyNode, shaclPathPredicate, pathNode));
-                int temp = 1;
-                Node tempNode = NodeFactory.createLiteralByValue(temp, TypeMapper.getInstance().getTypeByValue(temp));
-                out.triple(Triple.create(propertyNode, shaclMinCountPredicate, tempNode));
-
-                Node patternNode = NodeFactory.createLiteral("[\\p{L}\\p{N}]+", "");
-                Node flagsNode = NodeFactory.createLiteral("i");
-
-                // add links to the following data pages
-                // by just iterating over all known possible prefix extensions
-                for( List<String> next : this.expandTokens(current) ) {
-                    long nextHash = this.hasher.hash(next);
-
-                    // checking the hash is faster than checking the file's existence - but may backfire
-                    if (this.counts.containsKey(nextHash)) {
-                        queue.add(next);
-                        int count = this.counts.get(nextHash);
-                        Node nextNode = NodeFactory.createURI(root + String.join("+", next) + this.extension);
-                        Node remainingNode = NodeFactory.createLiteralByValue(count, TypeMapper.getInstance().getTypeByValue(count));
-
-                        Node relationNode = NodeFactory.createBlankNode(String.join("+", next));
-                        out.triple(Triple.create(thisNode, relationPredicate, relationNode));
-                        out.triple(Triple.create(relationNode, typePredicate, relationObject));
-                        out.triple(Triple.create(relationNode, nodePredicate, nextNode));
-                        for (String token : next) {
-                            Node tokenValue = NodeFactory.createLiteral(token);
-                            out.triple(Triple.create(relationNode, valuePredicate, tokenValue));
-                        }
-                        out.triple(Triple.create(relationNode, treePathPredicate, pathNode));
-                        out.triple(Triple.create(relationNode, shaclPatternPredicate, patternNode));
-                        out.triple(Triple.create(relationNode, shaclFlagsPredicate, flagsNode));
-                        out.triple(Triple.create(relationNode, remainingPredicate, remainingNode));
-                    }
-                }
+    // writes the controls that weren't taken along with any data, such as those of the root node
+    public void writeRemaining(Destination destination) throws IOException {
+        for (Controls controls : this.pending.values()) {
+            // these files have no data, so they're replaced entirely (a previous run may have left one)
+            destination.write(controls.filePath, controls.data);
+        }
+        this.pending.clear();
+    }
+
+    // serializes the hypermedia controls of a non-leaf node, and returns its children
+    protected List<List<String>> visit(String root, List<String> current) {
+        // add hypermedia controls to all non-leaf nodes
+        long currentHash = this.hasher.hash(current);
+        if (current.size() > 0 && !this.capacity.isSplit(currentHash, this.counters)) {
+            return Collections.emptyList();
+        }
+
+        Path filePath;
+        Node thisNode;
+        Node rootNode = NodeFactory.createURI(root);
+
+        // root node is hard coded
+        if (current.size() == 0) {
+            filePath = this.outDirPath.resolve(".root" + this.extension);
+            thisNode = NodeFactory.createURI(root);
+        } else {
+            String identifier = String.join("+", current);
+            filePath = this.outDirPath.resolve(identifier + this.extension);
+            thisNode = NodeFactory.createURI(root + identifier + this.extension);
+        }
+
+        List<List<String>> result = this.expandTokens(current);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StreamRDF out = StreamRDFWriter.getWriterStream(bytes, FragmentOutput.lang(this.extension));
+
+        // define this page as a subset of the collection as a whole
+        out.triple(Triple.create(rootNode, subsetPredicate, thisNode));
 
-                out.finish();
+        // create a shacl path object that defines which properties are contained in this dataset
+        Node pathNode;
+        if (this.properties.size() > 1) {
+            pathNode = NodeFactory.createBlankNode("path_node");
+            Node listNode = this.writeList(this.properties, out,"propertylist");
+            out.triple(Triple.create(pathNode, alternatePathPredicate, listNode));
+        } else {
+            pathNode = this.properties.get(0);
+        }
+
+        // link the previously-defined shacl path to the dataset
+        // this communicates to clients which data can be found here
+        Node shapeNode = NodeFactory.createBlankNode("shape_node");
+        out.triple(Triple.create(rootNode, treeShapePredicate, shapeNode));
+        Node propertyNode = NodeFactory.createBlankNode("property_node");
+        out.triple(Triple.create(shapeNode, shaclPropertyPredicate, propertyNode));
+        out.triple(Triple.create(propertyNode, shaclPathPredicate, pathNode));
+        int temp = 1;
+        Node tempNode = NodeFactory.createLiteralByValue(temp, TypeMapper.getInstance().getTypeByValue(temp));
+        out.triple(Triple.create(propertyNode, shaclMinCountPredicate, tempNode));
+
+        Node patternNode = NodeFactory.createLiteral("[\\p{L}\\p{N}]+", "");
+        Node flagsNode = NodeFactory.createLiteral("i");
+
+        // add links to the following data pages
+        for (List<String> next : result) {
+            long nextHash = this.hasher.hash(next);
+            int count = this.counters.getCount(nextHash);
+            this.remainingItems.incrementAndGet();
+            if (this.counters.isEstimate(nextHash)) {
+                this.estimatedItems.incrementAndGet();
             }
+            Node nextNode = NodeFactory.createURI(root + String.join("+", next) + this.extension);
+            Node remainingNode = NodeFactory.createLiteralByValue(count, TypeMapper.getInstance().getTypeByValue(count));
+
+            Node relationNode = NodeFactory.createBlankNode(String.join("+", next));
+            out.triple(Triple.create(thisNode, relationPredicate, relationNode));
+            out.triple(Triple.create(relationNode, typePredicate, relationObject));
+            out.triple(Triple.create(relationNode, nodePredicate, nextNode));
+            for (String token : next) {
+                Node tokenValue = NodeFactory.createLiteral(token);
+                out.triple(Triple.create(relationNode, valuePredicate, tokenValue));
+            }
+            out.triple(Triple.create(relationNode, treePathPredicate, pathNode));
+            out.triple(Triple.create(relationNode, shaclPatternPredicate, patternNode));
+            out.triple(Triple.create(relationNode, shaclFlagsPredicate, flagsNode));
+            out.triple(Triple.create(relationNode, remainingPredicate, remainingNode));
         }
 
-        System.out.println("Fullest page: " + mostWrittenPrefix + " @ " + mostWrittenCount);
+        out.finish();
+        this.pending.put(currentHash, new Controls(filePath, bytes.toByteArray()));
+        return result;
     }
 
     protected Node writeList(List<Node> nodes, StreamRDF out, String prefix) {
@@ -204,4 +301,19 @@ public class HypermediaControls {
         out.triple(Triple.create(lastNode, restPredicate, nil));
         return result;
     }
+
+    // where complete files go: the output directory, or an archive
+    interface Destination {
+        void write(Path filePath, byte[] data) throws IOException;
+    }
+
+    static class Controls {
+        final Path filePath;
+        final byte[] data;
+
+        Controls(Path filePath, byte[] data) {
+            this.filePath = filePath;
+            this.data = data;
+        }
+    }
 }
@@ -0,0 +1,275 @@
+package main.java;
+
+import org.apache.jena.atlas.io.IO;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.lang.LabelToNode;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDF2;
+import org.apache.jena.sparql.core.Quad;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// the files a task reads: paths or globs, plain or compressed (.gz, .bz2)
+// compressed files are decompressed on a separate thread, ahead of the parser
+// several files are parsed at the same time, but they reach the sink in the order they were given, as if they were one file
+// so the fragments are the same as those of the concatenated (and decompressed) dump
+// plain N-Triples files skip the parser, the NTriplesScanner reads them more efficiently
+class InputFiles {
+    protected static final int READ_AHEAD_CHUNK = 1024 * 1024; // bytes
+    protected static final int READ_AHEAD_CHUNKS = 16;
+    protected static final int BATCH_SIZE = 1024;             // statements that are handed to the sink at once
+    protected static final int BATCHES = 64;                  // batches a file can be parsed ahead
+
+    // the files behind the task's input and inputs, globs are expanded in sorted order
+    public static List<Path> resolve(ConfigTask task) throws IOException {
+        List<String> patterns = new ArrayList<>();
+        if (task.input != null) {
+            patterns.add(task.input);
+        }
+        if (task.inputs != null) {
+            patterns.addAll(List.of(task.inputs));
+        }
+
+        List<Path> result = new ArrayList<>();
+        for (String pattern : patterns) {
+            if (!isGlob(pattern)) {
+                result.add(Path.of(pattern));
+                continue;
+            }
+
+            // walk from the deepest directory without wildcards
+            int wildcard = firstWildcard(pattern);
+            int separator = pattern.lastIndexOf('/', wildcard);
+            Path base = Path.of(separator < 0 ? "." : pattern.substring(0, separator + 1));
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + (separator < 0 ? "./" + pattern : pattern));
+            List<Path> matches;
+            try (Stream<Path> paths = Files.walk(base)) {
+                matches = paths.filter(path -> Files.isRegularFile(path) && matcher.matches(path))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+            if (matches.isEmpty()) {
+                throw new NoSuchFileException(pattern);
+            }
+            result.addAll(matches);
+        }
+        return result;
+    }
+
+    protected static boolean isGlob(String pattern) {
+        return firstWildcard(pattern) < pattern.length();
+    }
+
+    protected static int firstWildcard(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            if ("*?[{".indexOf(pattern.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return pattern.length();
+    }
+
+    public static long size(List<Path> files) throws IOException {
+        long size = 0;
+        for (Path file : files) {
+            if (Files.exists(file)) {
+                size += Files.size(file);
+            }
+        }
+        return size;
+    }
+
+    // parses all files into each of the sinks; N-Triples files are scanned instead
+    // with checkpoints, the input continues after the last one, and new ones are taken along the way
+    public static void parse(List<Path> files, List<FragmentSink> sinks, int threads, @Nullable Checkpoints checkpoints) throws IOException {
+        if (NTriplesScanner.accepts(files)) {
+            new NTriplesScanner(sinks, threads, checkpoints).scan(files);
+            return;
+        }
+
+        StreamRDF destination = chain(sinks);
+        parse(files, checkpoints == null ? destination : checkpoints.wrap(destination), threads);
+    }
+
+    // a stream that passes everything on to each of the sinks
+    public static StreamRDF chain(List<FragmentSink> sinks) {
+        StreamRDF destination = sinks.get(0);
+        for (int i = 1; i < sinks.size(); i++) {
+            destination = new StreamRDF2(destination, sinks.get(i));
+        }
+        return destination;
+    }
+
+    // parses all files into the sink, up to `threads` at the same time
+    public static void parse(List<Path> files, StreamRDF sink, int threads) throws IOException {
+        if (files.size() == 1) {
+            parse(files.get(0), sink);
+            return;
+        }
+
+        ExecutorService parsers = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size())));
+        List<Part> parts = new ArrayList<>();
+        for (Path file : files) {
+            // the pool starts the parts in order, so the part that's being read is always running or done
+            Part part = new Part();
+            parts.add(part);
+            parsers.submit(() -> part.parse(file));
+        }
+        parsers.shutdown();
+
+        try {
+            sink.start();
+            for (Part part : parts) {
+                part.drainTo(sink);
+            }
+            sink.finish();
+        } finally {
+            parsers.shutdownNow();
+        }
+    }
+
+    protected static void parse(Path file, StreamRDF destination) throws IOException {
+        String name = file.toString();
+        if (IO.filenameNoCompression(name).equals(name)) {
+            RDFParser.source(file).labelToNode(labels(file)).parse(destination);
+            return;
+        }
+
+        Lang lang = RDFLanguages.filenameToLang(IO.filenameNoCompression(name));
+        try (InputStream in = new ReadAheadInputStream(IO.openFileEx(name), file.getFileName().toString(), READ_AHEAD_CHUNK, READ_AHEAD_CHUNKS)) {
+            RDFParser.source(in).lang(lang).base(file.toUri().toString()).labelToNode(labels(file)).parse(destination);
+        }
+    }
+
+    // blank nodes get the same (internal) label in every run, so their fragments don't change between runs
+    // while a label still stands for different nodes in different files
+    protected static LabelToNode labels(Path file) {
+        return LabelToNode.createScopeByDocumentHash(UUID.nameUUIDFromBytes(file.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // the statements of one file, collected in batches until the sink gets to them
+    static class Part implements StreamRDF {
+        protected static final List<Object> END = new ArrayList<>();
+
+        protected final BlockingQueue<List<Object>> batches;
+        protected List<Object> batch;
+        protected volatile Throwable failure;
+
+        Part() {
+            this.batches = new ArrayBlockingQueue<>(BATCHES);
+            this.batch = new ArrayList<>(BATCH_SIZE);
+        }
+
+        // runs on a parser thread
+        protected void parse(Path file) {
+            try {
+                InputFiles.parse(file, this);
+                this.put(this.batch);
+            } catch (Throwable e) {
+                this.failure = e;
+            }
+
+            try {
+                this.batches.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void drainTo(StreamRDF sink) throws IOException {
+            while (true) {
+                List<Object> batch;
+                try {
+                    batch = this.batches.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+
+                if (batch == END) {
+                    if (this.failure instanceof IOException) {
+                        throw (IOException) this.failure;
+                    } else if (this.failure instanceof RuntimeException) {
+                        throw (RuntimeException) this.failure;
+                    } else if (this.failure != null) {
+                        throw new IOException(this.failure);
+                    }
+                    return;
+                }
+
+                for (Object statement : batch) {
+                    if (statement instanceof Triple) {
+                        sink.triple((Triple) statement);
+                    } else {
+                        sink.quad((Quad) statement);
+                    }
+                }
+            }
+        }
+
+        protected void add(Object statement) {
+            this.batch.add(statement);
+            if (this.batch.size() == BATCH_SIZE) {
+                this.put(this.batch);
+                this.batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+
+        protected void put(List<Object> batch) {
+            try {
+                this.batches.put(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public void triple(Triple triple) {
+            this.add(triple);
+        }
+
+        @Override
+        public void quad(Quad quad) {
+            this.add(quad);
+        }
+
+        // the sink is started and finished once, for all parts together
+        @Override
+        public void start() {
+
+        }
+
+        @Override
+        public void finish() {
+
+        }
+
+        // prefixes only matter within their own file
+        @Override
+        public void base(String base) {
+
+        }
+
+        @Override
+        public void prefix(String prefix, String iri) {
+
+        }
+    }
+}
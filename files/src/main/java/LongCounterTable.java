@@ -0,0 +1,378 @@
+package main.java;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.LongFunction;
+
+// open addressing hash table with primitive long keys, storing both counters of a prefix in one slot
+// the slots live on the heap, in direct buffers, or in memory-mapped files so they can outgrow the heap
+public class LongCounterTable implements PrefixCounters {
+    protected static final long INITIAL_CAPACITY = 1 << 16;
+
+    protected final LongFunction<Slots> allocator;
+    protected Slots slots;
+    protected long mask;
+    protected long threshold;
+    protected int size;
+
+    // key 0 marks an empty slot, so the (very real) prefix with hash 0 is stored separately
+    protected boolean hasZero;
+    protected long zeroValue;
+
+    LongCounterTable(LongFunction<Slots> allocator) {
+        this(allocator, INITIAL_CAPACITY);
+    }
+
+    // the capacity is a power of two
+    LongCounterTable(LongFunction<Slots> allocator, long initialCapacity) {
+        this.allocator = allocator;
+        this.allocate(initialCapacity);
+    }
+
+    public static LongCounterTable create(String storage) {
+        if (storage == null || storage.equals("heap")) {
+            return new LongCounterTable(HeapSlots::new);
+        } else if (storage.equals("direct")) {
+            return new LongCounterTable(capacity -> new BufferSlots(capacity, false));
+        } else if (storage.equals("mapped")) {
+            return new LongCounterTable(capacity -> new BufferSlots(capacity, true));
+        }
+        throw new IllegalArgumentException("Unknown counter storage: " + storage);
+    }
+
+    @Override
+    public boolean contains(long hash) {
+        if (hash == 0) {
+            return this.hasZero;
+        }
+        return this.slots.key(this.find(hash)) != 0;
+    }
+
+    @Override
+    public int getCount(long hash) {
+        return count(this.get(hash));
+    }
+
+    @Override
+    public int getWritten(long hash) {
+        return written(this.get(hash));
+    }
+
+    @Override
+    public boolean claim(long hash, int capacity) {
+        long slot = this.findOrInsert(hash);
+        long value = slot < 0 ? this.zeroValue : this.slots.value(slot);
+
+        int count = count(value) + 1;
+        int written = written(value);
+        boolean claimed = written < capacity;
+        if (claimed) {
+            written += 1;
+        }
+
+        this.set(slot, pack(count, written));
+        return claimed;
+    }
+
+    @Override
+    public void addWritten(long hash, int delta) {
+        long slot = this.findOrInsert(hash);
+        long value = slot < 0 ? this.zeroValue : this.slots.value(slot);
+        this.set(slot, pack(count(value), written(value) + delta));
+    }
+
+    @Override
+    public void put(long hash, int count, int written) {
+        this.set(this.findOrInsert(hash), pack(count, written));
+    }
+
+    // forgets the prefix; the entries after it are shifted back, so lookups don't stop at the gap
+    public void remove(long hash) {
+        if (hash == 0) {
+            if (this.hasZero) {
+                this.hasZero = false;
+                this.zeroValue = 0;
+                this.size -= 1;
+            }
+            return;
+        }
+
+        long gap = this.find(hash);
+        if (this.slots.key(gap) == 0) {
+            return;
+        }
+        this.size -= 1;
+
+        long next = (gap + 1) & this.mask;
+        long key;
+        while ((key = this.slots.key(next)) != 0) {
+            // an entry can fill the gap if the gap lies between its home slot and where it is now
+            long home = spread(key) & this.mask;
+            if (((next - home) & this.mask) >= ((next - gap) & this.mask)) {
+                this.slots.key(gap, key);
+                this.slots.value(gap, this.slots.value(next));
+                gap = next;
+            }
+            next = (next + 1) & this.mask;
+        }
+        // empty slots have no counts, lookups of unknown prefixes rely on that
+        this.slots.key(gap, 0);
+        this.slots.value(gap, 0);
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    // slots that are allocated, taken or not
+    public long capacity() {
+        return this.mask + 1;
+    }
+
+    // removes every prefix the filter accepts; the filter sees each prefix at least once, and may see kept ones again
+    public void removeIf(Filter filter) {
+        if (this.hasZero && filter.remove(0, count(this.zeroValue), written(this.zeroValue))) {
+            this.remove(0);
+        }
+        for (long slot = 0; slot <= this.mask; slot++) {
+            long key;
+            // removing shifts the next entries back, possibly into this slot
+            while ((key = this.slots.key(slot)) != 0) {
+                long value = this.slots.value(slot);
+                if (!filter.remove(key, count(value), written(value))) {
+                    break;
+                }
+                this.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public void forEach(Visitor visitor) {
+        if (this.hasZero) {
+            visitor.visit(0, count(this.zeroValue), written(this.zeroValue));
+        }
+        for (long slot = 0; slot <= this.mask; slot++) {
+            long key = this.slots.key(slot);
+            if (key != 0) {
+                long value = this.slots.value(slot);
+                visitor.visit(key, count(value), written(value));
+            }
+        }
+    }
+
+    @Override
+    public LongFunction<Slots> storage() {
+        return this.allocator;
+    }
+
+    @Override
+    public void close() {
+        this.slots.free();
+    }
+
+    protected long get(long hash) {
+        if (hash == 0) {
+            return this.zeroValue;
+        }
+        return this.slots.value(this.find(hash));
+    }
+
+    protected void set(long slot, long value) {
+        if (slot < 0) {
+            this.zeroValue = value;
+        } else {
+            this.slots.value(slot, value);
+        }
+    }
+
+    // returns the slot containing the given key, or the empty slot where it would be inserted
+    protected long find(long hash) {
+        long slot = spread(hash) & this.mask;
+        long key;
+        while ((key = this.slots.key(slot)) != 0 && key != hash) {
+            slot = (slot + 1) & this.mask;
+        }
+        return slot;
+    }
+
+    // returns -1 for the zero key
+    protected long findOrInsert(long hash) {
+        if (hash == 0) {
+            if (!this.hasZero) {
+                this.hasZero = true;
+                this.size += 1;
+            }
+            return -1;
+        }
+
+        long slot = this.find(hash);
+        if (this.slots.key(slot) == 0) {
+            if (this.size >= this.threshold) {
+                this.grow();
+                slot = this.find(hash);
+            }
+            this.slots.key(slot, hash);
+            this.size += 1;
+        }
+        return slot;
+    }
+
+    protected void allocate(long capacity) {
+        this.slots = this.allocator.apply(capacity);
+        this.mask = capacity - 1;
+        this.threshold = capacity / 4 * 3;
+    }
+
+    protected void grow() {
+        Slots old = this.slots;
+        long oldCapacity = this.mask + 1;
+        this.allocate(oldCapacity * 2);
+
+        for (long i = 0; i < oldCapacity; i++) {
+            long key = old.key(i);
+            if (key != 0) {
+                long slot = this.find(key);
+                this.slots.key(slot, key);
+                this.slots.value(slot, old.value(i));
+            }
+        }
+        old.free();
+    }
+
+    protected static long spread(long hash) {
+        // fibonacci hashing, in case the keys aren't uniformly distributed in their low bits
+        long h = hash * 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 32);
+    }
+
+    protected static long pack(int count, int written) {
+        return ((long) count << 32) | (written & 0xffffffffL);
+    }
+
+    protected static int count(long value) {
+        return (int) (value >>> 32);
+    }
+
+    protected static int written(long value) {
+        return (int) value;
+    }
+
+    interface Filter {
+        boolean remove(long hash, int count, int written);
+    }
+
+    // storage of the key and the packed counters of each slot
+    interface Slots {
+        long key(long slot);
+
+        long value(long slot);
+
+        void key(long slot, long key);
+
+        void value(long slot, long value);
+
+        void free();
+    }
+
+    static class HeapSlots implements Slots {
+        protected long[] keys;
+        protected long[] values;
+
+        HeapSlots(long capacity) {
+            this.keys = new long[Math.toIntExact(capacity)];
+            this.values = new long[Math.toIntExact(capacity)];
+        }
+
+        public long key(long slot) {
+            return this.keys[(int) slot];
+        }
+
+        public long value(long slot) {
+            return this.values[(int) slot];
+        }
+
+        public void key(long slot, long key) {
+            this.keys[(int) slot] = key;
+        }
+
+        public void value(long slot, long value) {
+            this.values[(int) slot] = value;
+        }
+
+        public void free() {
+            this.keys = null;
+            this.values = null;
+        }
+    }
+
+    // 16 bytes per slot, spread over buffers of at most 2^26 slots (1 GiB) each
+    static class BufferSlots implements Slots {
+        protected static final int SEGMENT_BITS = 26;
+        protected static final int SLOT_BYTES = 16;
+
+        protected final ByteBuffer[] segments;
+        protected final int segmentMask;
+
+        BufferSlots(long capacity, boolean mapped) {
+            int segmentSlots = (int) Math.min(capacity, 1L << SEGMENT_BITS);
+            this.segments = new ByteBuffer[(int) (capacity / segmentSlots)];
+            this.segmentMask = segmentSlots - 1;
+
+            for (int i = 0; i < this.segments.length; i++) {
+                long bytes = (long) segmentSlots * SLOT_BYTES;
+                if (mapped) {
+                    this.segments[i] = map(bytes);
+                } else {
+                    this.segments[i] = ByteBuffer.allocateDirect((int) bytes);
+                }
+            }
+        }
+
+        protected static ByteBuffer map(long bytes) {
+            try {
+                // the file can be removed right away; the mapping keeps its pages alive
+                Path file = Files.createTempFile("counters", ".bin");
+                try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                    raf.setLength(bytes);
+                    ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+                    Files.delete(file);
+                    return buffer;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        protected int offset(long slot) {
+            return ((int) slot & this.segmentMask) * SLOT_BYTES;
+        }
+
+        public long key(long slot) {
+            return this.segments[(int) (slot >>> SEGMENT_BITS)].getLong(this.offset(slot));
+        }
+
+        public long value(long slot) {
+            return this.segments[(int) (slot >>> SEGMENT_BITS)].getLong(this.offset(slot) + 8);
+        }
+
+        public void key(long slot, long key) {
+            this.segments[(int) (slot >>> SEGMENT_BITS)].putLong(this.offset(slot), key);
+        }
+
+        public void value(long slot, long value) {
+            this.segments[(int) (slot >>> SEGMENT_BITS)].putLong(this.offset(slot) + 8, value);
+        }
+
+        public void free() {
+            // direct and mapped buffers are released once they are garbage collected
+            java.util.Arrays.fill(this.segments, null);
+        }
+    }
+}
@@ -1,19 +1,12 @@
 package main.java;
 
 import com.google.gson.Gson;
-import org.apache.jena.graph.Node;
-import org.apache.jena.rdf.model.Property;
-import org.apache.jena.rdf.model.ResourceFactory;
-import org.apache.jena.riot.RDFParser;
 
 import java.io.IOException;
-import java.net.URI;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
 
 import static java.lang.System.exit;
 
@@ -30,50 +23,6 @@ public class Main {
         Files.deleteIfExists(path);
     }
 
-    public static void handleTask(
-            URI domain,         // root URI used to identify all the fragments
-            String outDir,      // local path to write the data files to
-            ConfigTask task,    // description of the source data, and what to do with it
-            int maxFileHandles,  // how many file handles can we have open while working
-            String extension
-    ) throws IOException {
-        System.out.println("Parsing " + task.input);
-
-        // prepare the output directory
-        Path inputFileName = Path.of(task.input);
-        Path outDirPath = Path.of(outDir, task.name);
-        deleteDirectoryRecursive(outDirPath);
-        Files.createDirectories(outDirPath);
-
-        // convert the given properties to Property objects
-        List<Node> properties = new ArrayList<>();
-        for (String property : task.properties) {
-            Property property1 = ResourceFactory.createProperty(property);
-            Node asNode = property1.asNode();
-            properties.add(asNode);
-        }
-
-        // send all data through a FragmentSink
-        // which will pipe the triples to multiple fragment files
-        Hasher hasher = new Hasher();
-        FragmentSink fragmenter = new FragmentSink(properties, maxFileHandles, outDirPath, hasher, extension);
-        RDFParser.source(inputFileName).parse(fragmenter);
-
-        // we now know which fragments actually exist in the dataset
-        // so now is the time to create links between them
-        System.out.println("Finalizing " + task.input);
-        HypermediaControls controls = new HypermediaControls(
-                properties,
-                fragmenter.getCounts(),
-                fragmenter.getWritten(),
-                hasher,
-                outDirPath,
-                fragmenter.getCharSet(),
-                extension
-        );
-        controls.addHypermedia(domain.toASCIIString() + "/" + task.name + "/");
-    }
-
     public static void main(String[] args) {
         Gson gson = new Gson();
         Path fileName = Path.of("config.json");
@@ -81,12 +30,30 @@ public class Main {
             String blob = Files.readString(fileName);
             Config config = gson.fromJson((blob), Config.class);
 
-            for (ConfigTask task : config.tasks) {
-                // process each file, one by one
-                // this could be parallelized, but we'd just run into IO limitations
-                String extension = task.extension == null ? ".ttl" : task.extension;
-                handleTask(URI.create(config.domain), config.outDir, task, config.maxFileHandles, extension);
+            if (args.length > 0 && args[0].equals("serve")) {
+                // serve the archives of an earlier run, on the given port (8080 by default)
+                new FragmentServer(config, args.length > 1 ? Integer.parseInt(args[1]) : 8080).start();
+                return;
+            }
+            if (args.length > 2 && args[0].equals("simulate")) {
+                // replay a query log on the fragments of a task: simulate <task name> <query log> [round trip ms] [Mbit/s]
+                TraversalSimulator.run(
+                        Path.of(config.outDir, args[1]),
+                        Path.of(args[2]),
+                        args.length > 3 ? Double.parseDouble(args[3]) : 50,
+                        args.length > 4 ? Double.parseDouble(args[4]) : 10
+                );
+                return;
             }
+
+            if (args.length > 0 && args[0].equals("plan")) {
+                // fragment (a sample of) the inputs without writing anything: plan [fraction of the subjects]
+                new TaskScheduler(config).plan(config.tasks, args.length > 1 ? Double.parseDouble(args[1]) : 1);
+                return;
+            }
+
+            // process each file, by default one by one
+            new TaskScheduler(config).run(config.tasks);
         } catch (IOException e) {
             e.printStackTrace(System.out);
             exit(1);
@@ -0,0 +1,653 @@
+package main.java;
+
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.Lang;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// reads N-Triples files without building every term, instead of the Jena parser
+// the files are memory-mapped and split into chunks at line boundaries, which are scanned in parallel
+// each chunk is grouped into subject blocks, of which only the terms that are needed are built:
+// the literals of the properties that are fragmented on, and all terms of blocks that go to a fragment
+// lines that are already written the way the N-Triples writer would write them are copied as they are
+// the sinks get the blocks in the order of the input, so the fragments are the same as with the Jena parser
+class NTriplesScanner {
+    protected static final int CHUNK_SIZE = 32 * 1024 * 1024;
+    protected static final String XSD_STRING = "http://www.w3.org/2001/XMLSchema#string";
+
+    // the offsets (within the block's data) that are recorded for each line
+    protected static final int SUBJECT_START = 0;
+    protected static final int SUBJECT_END = 1;
+    protected static final int PREDICATE_START = 2;
+    protected static final int PREDICATE_END = 3;
+    protected static final int OBJECT_START = 4;
+    protected static final int OBJECT_END = 5;
+    protected static final int LEXICAL_END = 6;   // closing quote of a literal object, -1 for other objects
+    protected static final int LINE_START = 7;
+    protected static final int LINE_END = 8;      // without the line break
+    protected static final int CANONICAL = 9;     // 1 if the line can be copied as it is
+    protected static final int FILE = 10;         // index of the input file, which blank node labels are scoped to
+    protected static final int FIELDS = 11;
+
+    protected final List<Target> targets;
+    protected final int threads;
+    @Nullable
+    protected final Checkpoints checkpoints;
+    protected long emitted; // blocks handed to the sinks
+
+    NTriplesScanner(List<FragmentSink> sinks, int threads, @Nullable Checkpoints checkpoints) {
+        this.targets = new ArrayList<>();
+        for (FragmentSink sink : sinks) {
+            this.targets.add(new Target(sink));
+        }
+        this.threads = Math.max(1, threads);
+        this.checkpoints = checkpoints;
+        this.emitted = 0;
+    }
+
+    // only uncompressed N-Triples files can be scanned
+    public static boolean accepts(List<Path> files) {
+        for (Path file : files) {
+            if (!file.getFileName().toString().endsWith(".nt")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void scan(List<Path> files) throws IOException {
+        List<FileChannel> channels = new ArrayList<>();
+        ExecutorService workers = Executors.newFixedThreadPool(this.threads);
+        try {
+            // when resuming, the input starts with the first block after the checkpoint
+            int firstFile = 0;
+            long firstOffset = 0;
+            if (this.checkpoints != null && this.checkpoints.isResumed()) {
+                firstFile = this.checkpoints.getFile();
+                firstOffset = this.checkpoints.getOffset();
+                this.emitted = this.checkpoints.getBlocks();
+            }
+
+            List<Chunk> chunks = new ArrayList<>();
+            for (int f = firstFile; f < files.size(); f++) {
+                FileChannel channel = FileChannel.open(files.get(f), StandardOpenOption.READ);
+                channels.add(channel);
+                chunks.addAll(split(files.get(f), f, channel, f == firstFile ? firstOffset : 0));
+            }
+
+            for (Target target : this.targets) {
+                target.sink.start();
+            }
+
+            // a few chunks are scanned ahead of the one that is handed to the sinks
+            Deque<Future<List<ScannedBlock>>> scanned = new ArrayDeque<>();
+            Iterator<Chunk> remaining = chunks.iterator();
+            ScannedBlock pending = null; // the last block of the previous chunk, which may continue in the next one
+            while (remaining.hasNext() || !scanned.isEmpty()) {
+                while (remaining.hasNext() && scanned.size() < 2 * this.threads) {
+                    Chunk chunk = remaining.next();
+                    scanned.add(workers.submit(() -> this.scan(chunk)));
+                }
+
+                List<ScannedBlock> blocks = get(scanned.removeFirst());
+                for (int i = 0; i < blocks.size(); i++) {
+                    ScannedBlock block = blocks.get(i);
+                    if (i == 0 && pending != null && pending.subject.equals(block.subject)) {
+                        pending = pending.merge(block);
+                        continue;
+                    }
+                    if (pending != null) {
+                        this.emit(pending);
+                        pending = null;
+                    }
+                    if (i == blocks.size() - 1) {
+                        pending = block;
+                    } else {
+                        this.emit(block);
+                    }
+                }
+            }
+            if (pending != null) {
+                this.emit(pending);
+            }
+
+            for (Target target : this.targets) {
+                target.sink.finish();
+            }
+        } finally {
+            workers.shutdownNow();
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+        }
+    }
+
+    protected static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // splits a file from `start` on in chunks of about CHUNK_SIZE bytes, each ending with a line break (or the end of the file)
+    protected static List<Chunk> split(Path file, int index, FileChannel channel, long start) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        long size = channel.size();
+        ByteBuffer probe = ByteBuffer.allocate(64 * 1024);
+        while (start < size) {
+            long end = Math.min(size, start + CHUNK_SIZE);
+            while (end < size) {
+                probe.clear();
+                int read = channel.read(probe, end);
+                int newline = -1;
+                for (int i = 0; i < read && newline < 0; i++) {
+                    if (probe.get(i) == '\n') {
+                        newline = i;
+                    }
+                }
+                if (newline >= 0) {
+                    end += newline + 1;
+                    break;
+                }
+                end = Math.min(size, end + Math.max(read, 0));
+            }
+            chunks.add(new Chunk(file, index, channel, start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    // runs on a worker thread
+    // the first and the last block may continue in the neighbouring chunks, they are prepared once that's known
+    protected List<ScannedBlock> scan(Chunk chunk) throws IOException {
+        MappedByteBuffer buffer = chunk.channel.map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.end - chunk.start);
+        int limit = buffer.limit();
+        List<ScannedBlock> blocks = new ArrayList<>();
+
+        int[] line = new int[FIELDS];
+        int[] lines = new int[16 * FIELDS];
+        int count = 0;
+        int blockStart = -1;
+        int position = 0;
+        while (position < limit) {
+            int lineEnd = position;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                lineEnd += 1;
+            }
+            int contentEnd = lineEnd > position && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+
+            // statements about blank nodes are left out, without ending the block (as the sink does)
+            if (lex(buffer, position, contentEnd, line, chunk) && buffer.get(position) != '_') {
+                if (count > 0 && !sameSubject(buffer, lines, line)) {
+                    blocks.add(block(buffer, blockStart, lines, count, chunk));
+                    count = 0;
+                }
+                if (count == 0) {
+                    blockStart = position;
+                }
+                if ((count + 1) * FIELDS > lines.length) {
+                    lines = Arrays.copyOf(lines, 2 * lines.length);
+                }
+                System.arraycopy(line, 0, lines, count * FIELDS, FIELDS);
+                count += 1;
+            }
+            position = lineEnd + 1;
+        }
+        if (count > 0) {
+            blocks.add(block(buffer, blockStart, lines, count, chunk));
+        }
+
+        for (int i = 1; i < blocks.size() - 1; i++) {
+            blocks.get(i).prepare(this.targets);
+        }
+        return blocks;
+    }
+
+    // copies the lines of a block out of the mapped buffer, with their offsets relative to the copy
+    protected static ScannedBlock block(ByteBuffer buffer, int start, int[] lines, int count, Chunk chunk) {
+        int end = lines[(count - 1) * FIELDS + LINE_END];
+        byte[] data = new byte[end - start];
+        buffer.get(start, data);
+
+        int[] offsets = Arrays.copyOf(lines, count * FIELDS);
+        for (int i = 0; i < offsets.length; i++) {
+            if (isOffset(i) && offsets[i] >= 0) {
+                offsets[i] -= start;
+            }
+        }
+        String subject = iri(data, offsets[SUBJECT_START] + 1, offsets[SUBJECT_END] - 1);
+        return new ScannedBlock(subject, data, offsets, count, chunk.index, chunk.start + start);
+    }
+
+    protected static boolean isOffset(int field) {
+        return field % FIELDS != CANONICAL && field % FIELDS != FILE;
+    }
+
+    protected static boolean sameSubject(ByteBuffer buffer, int[] lines, int[] line) {
+        int start = lines[SUBJECT_START];
+        int length = lines[SUBJECT_END] - start;
+        if (length == line[SUBJECT_END] - line[SUBJECT_START]
+                && buffer.slice(start, length).equals(buffer.slice(line[SUBJECT_START], length))) {
+            return true;
+        }
+
+        // the same IRI may be written with different escapes
+        boolean escaped = false;
+        for (int i = start; i < start + length && !escaped; i++) {
+            escaped = buffer.get(i) == '\\';
+        }
+        for (int i = line[SUBJECT_START]; i < line[SUBJECT_END] && !escaped; i++) {
+            escaped = buffer.get(i) == '\\';
+        }
+        return escaped && iri(buffer, start, start + length).equals(iri(buffer, line[SUBJECT_START], line[SUBJECT_END]));
+    }
+
+    // hands a block to every sink; runs on the thread that reads the chunks in order
+    // checkpoints are taken right before a block, so the input can continue where it starts
+    protected void emit(ScannedBlock block) throws IOException {
+        if (this.checkpoints != null && this.emitted > 0 && this.checkpoints.isDue()) {
+            this.checkpoints.save(this.emitted, block.file, block.start);
+        }
+        this.emitted += 1;
+        if (!block.prepared) {
+            block.prepare(this.targets);
+        }
+        for (int t = 0; t < this.targets.size(); t++) {
+            this.targets.get(t).sink.block(block.subject, block.values.get(t), block.serialized.get(t), block.count);
+        }
+    }
+
+    // records the offsets of the terms of a line; returns false for empty lines and comments
+    protected static boolean lex(ByteBuffer b, int start, int end, int[] line, Chunk chunk) throws IOException {
+        boolean canonical = true;
+        line[FILE] = chunk.index;
+        int i = start;
+        while (i < end && isSpace(b.get(i))) {
+            i += 1;
+            canonical = false;
+        }
+        if (i == end || b.get(i) == '#') {
+            return false;
+        }
+        line[LINE_START] = start;
+
+        // subject
+        line[SUBJECT_START] = i;
+        if (b.get(i) == '<') {
+            i = iriEnd(b, i, end, chunk);
+        } else if (b.get(i) == '_' && i + 1 < end && b.get(i + 1) == ':') {
+            i = labelEnd(b, i, end);
+        } else {
+            throw malformed(chunk, start, "subject");
+        }
+        line[SUBJECT_END] = i;
+
+        // predicate
+        int spaces = i;
+        while (i < end && isSpace(b.get(i))) {
+            i += 1;
+        }
+        canonical &= i == spaces + 1 && b.get(spaces) == ' ';
+        if (i == spaces || i == end || b.get(i) != '<') {
+            throw malformed(chunk, start, "predicate");
+        }
+        line[PREDICATE_START] = i;
+        i = iriEnd(b, i, end, chunk);
+        line[PREDICATE_END] = i;
+
+        // object
+        spaces = i;
+        while (i < end && isSpace(b.get(i))) {
+            i += 1;
+        }
+        canonical &= i == spaces + 1 && b.get(spaces) == ' ';
+        if (i == spaces || i == end) {
+            throw malformed(chunk, start, "object");
+        }
+        line[OBJECT_START] = i;
+        line[LEXICAL_END] = -1;
+        byte first = b.get(i);
+        if (first == '<') {
+            i = iriEnd(b, i, end, chunk);
+        } else if (first == '_' && i + 1 < end && b.get(i + 1) == ':') {
+            i = labelEnd(b, i, end);
+            canonical = false; // the writer makes up its own labels
+        } else if (first == '"') {
+            i += 1;
+            while (i < end && b.get(i) != '"') {
+                byte c = b.get(i);
+                if (c == '\\') {
+                    i += 1;
+                }
+                canonical &= (c & 0xff) >= 0x20 && c != '\\'; // the writer escapes these
+                i += 1;
+            }
+            if (i >= end) {
+                throw malformed(chunk, start, "literal");
+            }
+            line[LEXICAL_END] = i;
+            i += 1;
+            if (i < end && b.get(i) == '@') {
+                i += 1;
+                while (i < end && (Character.isLetterOrDigit(b.get(i)) || b.get(i) == '-')) {
+                    i += 1;
+                }
+            } else if (i + 2 < end && b.get(i) == '^' && b.get(i + 1) == '^' && b.get(i + 2) == '<') {
+                int datatype = i + 2;
+                i = iriEnd(b, datatype, end, chunk);
+                canonical &= !iri(b, datatype, i).equals(XSD_STRING);
+            }
+        } else {
+            throw malformed(chunk, start, "object");
+        }
+        line[OBJECT_END] = i;
+
+        // the final dot, and possibly a comment
+        spaces = i;
+        while (i < end && isSpace(b.get(i))) {
+            i += 1;
+        }
+        canonical &= i == spaces + 1 && b.get(spaces) == ' ';
+        if (i == end || b.get(i) != '.') {
+            throw malformed(chunk, start, "end of statement");
+        }
+        i += 1;
+        canonical &= i == end;
+        while (i < end && isSpace(b.get(i))) {
+            i += 1;
+        }
+        if (i < end && b.get(i) != '#') {
+            throw malformed(chunk, start, "end of line");
+        }
+
+        // the writer unescapes IRIs
+        canonical &= !hasBackslash(b, line[SUBJECT_START], line[PREDICATE_END])
+                && (first != '<' || !hasBackslash(b, line[OBJECT_START], line[OBJECT_END]));
+
+        line[LINE_END] = end;
+        line[CANONICAL] = canonical ? 1 : 0;
+        return true;
+    }
+
+    protected static boolean isSpace(byte c) {
+        return c == ' ' || c == '\t';
+    }
+
+    protected static boolean hasBackslash(ByteBuffer b, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (b.get(i) == '\\') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the offset after the closing '>'
+    protected static int iriEnd(ByteBuffer b, int start, int end, Chunk chunk) throws IOException {
+        for (int i = start + 1; i < end; i++) {
+            if (b.get(i) == '>') {
+                return i + 1;
+            }
+        }
+        throw malformed(chunk, start, "IRI");
+    }
+
+    protected static int labelEnd(ByteBuffer b, int start, int end) {
+        int i = start + 2;
+        while (i < end && !isSpace(b.get(i))) {
+            i += 1;
+        }
+        return i;
+    }
+
+    protected static IOException malformed(Chunk chunk, int offset, String expected) {
+        return new IOException("Malformed N-Triples in " + chunk.file + " at byte " + (chunk.start + offset) + ": bad " + expected);
+    }
+
+    // the IRI between the brackets at [start, end)
+    protected static String iri(ByteBuffer b, int start, int end) {
+        byte[] bytes = new byte[end - start - 2];
+        b.get(start + 1, bytes);
+        return unescape(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    // the IRI at [start, end), without its brackets
+    protected static String iri(byte[] data, int start, int end) {
+        return unescape(new String(data, start, end - start, StandardCharsets.UTF_8));
+    }
+
+    // resolves the escape sequences of N-Triples strings and IRIs
+    protected static String unescape(String s) {
+        int backslash = s.indexOf('\\');
+        if (backslash < 0) {
+            return s;
+        }
+
+        StringBuilder result = new StringBuilder(s.length());
+        result.append(s, 0, backslash);
+        for (int i = backslash; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c != '\\' || i + 1 == s.length()) {
+                result.append(c);
+                continue;
+            }
+            char escaped = s.charAt(++i);
+            switch (escaped) {
+                case 't': result.append('\t'); break;
+                case 'b': result.append('\b'); break;
+                case 'n': result.append('\n'); break;
+                case 'r': result.append('\r'); break;
+                case 'f': result.append('\f'); break;
+                case 'u':
+                    result.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                case 'U':
+                    result.appendCodePoint(Integer.parseInt(s.substring(i + 1, i + 9), 16));
+                    i += 8;
+                    break;
+                default: result.append(escaped); // quotes and backslashes
+            }
+        }
+        return result.toString();
+    }
+
+    // what the scanner needs to know of a sink
+    static class Target {
+        final FragmentSink sink;
+        final List<byte[]> properties; // as they are written in N-Triples, brackets included
+        final Lang lang;
+
+        Target(FragmentSink sink) {
+            this.sink = sink;
+            this.properties = new ArrayList<>();
+            for (Node property : sink.properties) {
+                this.properties.add(("<" + property.getURI() + ">").getBytes(StandardCharsets.UTF_8));
+            }
+            this.lang = sink.lang;
+        }
+    }
+
+    static class Chunk {
+        final Path file;
+        final int index;     // of the file
+        final FileChannel channel;
+        final long start;
+        final long end;
+
+        Chunk(Path file, int index, FileChannel channel, long start, long end) {
+            this.file = file;
+            this.index = index;
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    // the lines of one subject, and what each sink makes of them
+    static class ScannedBlock {
+        final String subject;
+        final byte[] data;
+        final int[] lines;
+        final int count;
+        final int file;      // where the block starts in the input
+        final long start;
+
+        boolean prepared;
+        List<List<String>> values;   // normalized, per sink
+        List<byte[]> serialized;     // per sink, null if the block has no values for it
+
+        ScannedBlock(String subject, byte[] data, int[] lines, int count, int file, long start) {
+            this.subject = subject;
+            this.data = data;
+            this.lines = lines;
+            this.count = count;
+            this.file = file;
+            this.start = start;
+        }
+
+        // the same subject, continued in the next chunk
+        ScannedBlock merge(ScannedBlock next) {
+            byte[] data = Arrays.copyOf(this.data, this.data.length + next.data.length);
+            System.arraycopy(next.data, 0, data, this.data.length, next.data.length);
+            int[] lines = Arrays.copyOf(this.lines, this.lines.length + next.lines.length);
+            for (int i = 0; i < next.lines.length; i++) {
+                int offset = next.lines[i];
+                lines[this.lines.length + i] = !isOffset(i) || offset < 0 ? offset : offset + this.data.length;
+            }
+            return new ScannedBlock(this.subject, data, lines, this.count + next.count, this.file, this.start);
+        }
+
+        void prepare(List<Target> targets) {
+            this.values = new ArrayList<>();
+            this.serialized = new ArrayList<>();
+            for (Target target : targets) {
+                Set<String> values = this.values(target);
+                this.values.add(target.sink.normalizeAll(values));
+                this.serialized.add(values.isEmpty() ? null : this.serialize(target.lang));
+            }
+            this.prepared = true;
+        }
+
+        // same as FragmentSink.values, the literals of the target's properties in the order of the input
+        Set<String> values(Target target) {
+            Set<String> values = new HashSet<>();
+            for (byte[] property : target.properties) {
+                for (int l = 0; l < this.count; l++) {
+                    int line = l * FIELDS;
+                    if (this.lines[line + LEXICAL_END] < 0 || !this.matches(line, property)) {
+                        continue;
+                    }
+
+                    int lexicalEnd = this.lines[line + LEXICAL_END];
+                    String language = "";
+                    if (lexicalEnd + 1 < this.lines[line + OBJECT_END] && this.data[lexicalEnd + 1] == '@') {
+                        language = new String(this.data, lexicalEnd + 2, this.lines[line + OBJECT_END] - lexicalEnd - 2, StandardCharsets.UTF_8);
+                    }
+                    if (!(
+                            language.equals("ja")
+                                    || language.equals("zh")
+                                    || language.equals("ko")
+                                    || language.equals("zh-cn")
+                                    || language.equals("got")
+                                    || language.equals("yue")
+                    )) {
+                        int lexicalStart = this.lines[line + OBJECT_START] + 1;
+                        values.add(unescape(new String(this.data, lexicalStart, lexicalEnd - lexicalStart, StandardCharsets.UTF_8)));
+                    }
+                }
+            }
+            return values;
+        }
+
+        boolean matches(int line, byte[] property) {
+            int start = this.lines[line + PREDICATE_START];
+            int end = this.lines[line + PREDICATE_END];
+            if (Arrays.equals(this.data, start, end, property, 0, property.length)) {
+                return true;
+            }
+            // escaped IRIs are compared after unescaping them
+            for (int i = start; i < end; i++) {
+                if (this.data[i] == '\\') {
+                    return iri(this.data, start + 1, end - 1).equals(new String(property, 1, property.length - 2, StandardCharsets.UTF_8));
+                }
+            }
+            return false;
+        }
+
+        byte[] serialize(Lang lang) {
+            boolean canonical = true;
+            for (int l = 0; l < this.count && canonical; l++) {
+                canonical = this.lines[l * FIELDS + CANONICAL] == 1;
+            }
+
+            // the lines are copied as they are, only duplicates are left out
+            if (lang == Lang.NTRIPLES && canonical) {
+                ByteArrayOutputStream result = new ByteArrayOutputStream(this.data.length + 1);
+                Set<ByteBuffer> seen = new HashSet<>();
+                for (int l = 0; l < this.count; l++) {
+                    int start = this.lines[l * FIELDS + LINE_START];
+                    int end = this.lines[l * FIELDS + LINE_END];
+                    if (seen.add(ByteBuffer.wrap(this.data, start, end - start))) {
+                        result.write(this.data, start, end - start);
+                        result.write('\n');
+                    }
+                }
+                return result.toByteArray();
+            }
+
+            TripleBuffer buffer = new TripleBuffer(this.subject);
+            Node subject = NodeFactory.createURI(this.subject);
+            for (int l = 0; l < this.count; l++) {
+                int line = l * FIELDS;
+                Node predicate = NodeFactory.createURI(iri(this.data, this.lines[line + PREDICATE_START] + 1, this.lines[line + PREDICATE_END] - 1));
+                buffer.addTriple(Triple.create(subject, predicate, this.object(line)));
+            }
+            return FragmentSink.serialize(buffer, lang);
+        }
+
+        Node object(int line) {
+            int start = this.lines[line + OBJECT_START];
+            int end = this.lines[line + OBJECT_END];
+            int lexicalEnd = this.lines[line + LEXICAL_END];
+            if (this.data[start] == '<') {
+                return NodeFactory.createURI(iri(this.data, start + 1, end - 1));
+            } else if (lexicalEnd < 0) {
+                // as with the parser, the same label in another file is another node
+                return NodeFactory.createBlankNode(this.lines[line + FILE] + "_" + new String(this.data, start + 2, end - start - 2, StandardCharsets.UTF_8));
+            }
+
+            String lexical = unescape(new String(this.data, start + 1, lexicalEnd - start - 1, StandardCharsets.UTF_8));
+            if (lexicalEnd + 1 < end && this.data[lexicalEnd + 1] == '@') {
+                return NodeFactory.createLiteral(lexical, new String(this.data, lexicalEnd + 2, end - lexicalEnd - 2, StandardCharsets.UTF_8));
+            } else if (lexicalEnd + 1 < end) {
+                String datatype = iri(this.data, lexicalEnd + 4, end - 1);
+                return NodeFactory.createLiteral(lexical, TypeMapper.getInstance().getSafeTypeByName(datatype));
+            }
+            return NodeFactory.createLiteral(lexical);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package main.java;
+
+import org.apache.jena.graph.Node;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.LongFunction;
+
+import static java.lang.System.exit;
+
+// spreads the work of a FragmentSink over multiple threads:
+// 1. the parser thread groups the statements into subject blocks (same as the FragmentSink)
+// 2. a worker pool extracts and normalizes their values, and serializes them
+// 3. one selector thread picks the fragments for each block, in the order of the input
+//    this keeps the fragment capacities and counts exact, and the output deterministic
+// 4. writer threads write the serialized blocks, each owning the fragments whose hash maps to it
+class PipelinedFragmentSink extends FragmentSink {
+    protected final ExecutorService workers;
+    protected final BlockingQueue<Future<PreparedBlock>> prepared;
+    protected final List<BlockingQueue<WriteRequest>> writeQueues;
+    protected final List<FragmentOutput> writerOutputs;
+    protected final List<Thread> threads;
+
+    PipelinedFragmentSink(
+            List<Node> properties,
+            FragmentOutput.Factory outputs,
+            Path outDirPath,
+            Hasher hasher,
+            String extension,
+            PrefixCounters counters,
+            FragmentCapacity capacity,
+            TaskMetrics metrics,
+            int poolSize
+    ) throws IOException {
+        super(properties, outputs, outDirPath, hasher, extension, counters, capacity, metrics);
+
+        // half of the pool writes, the other half normalizes
+        int writerCount = Math.max(1, poolSize / 2);
+        int workerCount = Math.max(1, poolSize - writerCount);
+
+        this.workers = Executors.newFixedThreadPool(workerCount);
+        this.prepared = new ArrayBlockingQueue<>(64 * workerCount); // bounded, so the parser can't run away
+        this.writeQueues = new ArrayList<>();
+        this.writerOutputs = new ArrayList<>();
+        this.threads = new ArrayList<>();
+
+        for (int i = 0; i < writerCount; i++) {
+            BlockingQueue<WriteRequest> queue = new ArrayBlockingQueue<>(1024);
+            FragmentOutput output = outputs.create();
+            this.writeQueues.add(queue);
+            this.writerOutputs.add(output);
+            this.threads.add(new Thread(() -> this.write(queue, output), "fragment-writer-" + i));
+        }
+        this.threads.add(new Thread(this::select, "fragment-selector"));
+
+        for (Thread thread : this.threads) {
+            thread.start();
+        }
+    }
+
+    @Override
+    protected FragmentOutput createOutput(FragmentOutput.Factory outputs) {
+        return null; // the writer threads have their own outputs
+    }
+
+    @Override
+    protected List<FragmentOutput> getOutputs() {
+        return this.writerOutputs;
+    }
+
+    // a marker is passed down the pipeline, every writer counts down once it has written everything before it
+    // nothing moves on afterwards until the thread that feeds the sink gives the next block
+    @Override
+    protected void drain() {
+        CountDownLatch drained = new CountDownLatch(this.writeQueues.size());
+        this.put(this.prepared, CompletableFuture.completedFuture(new PreparedBlock(drained)));
+        try {
+            drained.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (this.buffer != null) {
+            this.metrics.addBlock();
+            TripleBuffer buffer = this.buffer;
+            this.put(this.prepared, this.workers.submit(() -> this.prepare(buffer)));
+        }
+    }
+
+    @Override
+    public void block(String subject, List<String> values, byte[] block, int statements) {
+        this.metrics.addTriples(statements);
+        if (!this.isSampled(subject)) {
+            return;
+        }
+        this.metrics.addBlock();
+        this.put(this.prepared, CompletableFuture.completedFuture(new PreparedBlock(new TripleBuffer(subject), values, block)));
+    }
+
+    @Override
+    public void finish() {
+        if (this.buffer != null) {
+            this.flush();
+        }
+
+        // an empty block tells the selector (and in turn the writers) that the input is exhausted
+        this.put(this.prepared, CompletableFuture.completedFuture(new PreparedBlock(null, null, null)));
+        for (Thread thread : this.threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        this.workers.shutdown();
+    }
+
+    // the writers' outputs are finished concurrently as well
+    @Override
+    public void close(LongFunction<byte[]> trailers) {
+        List<Thread> finishers = new ArrayList<>();
+        for (FragmentOutput output : this.writerOutputs) {
+            Thread thread = new Thread(() -> finishOutput(output, trailers), "fragment-finisher-" + finishers.size());
+            finishers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : finishers) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    // runs on a worker thread
+    protected PreparedBlock prepare(TripleBuffer buffer) {
+        List<String> values = this.normalizeAll(this.values(buffer));
+        // blocks without values don't end up in any fragment
+        byte[] block = values.isEmpty() ? null : serialize(buffer, this.lang);
+        return new PreparedBlock(buffer, values, block);
+    }
+
+    // runs on the selector thread
+    protected void select() {
+        while (true) {
+            PreparedBlock block;
+            try {
+                block = this.prepared.take().get();
+            } catch (InterruptedException | ExecutionException e) {
+                e.printStackTrace(System.out);
+                exit(1);
+                return;
+            }
+
+            if (block.drained != null) {
+                for (BlockingQueue<WriteRequest> queue : this.writeQueues) {
+                    this.put(queue, new WriteRequest(block.drained));
+                }
+                continue;
+            }
+            if (block.buffer == null) {
+                for (BlockingQueue<WriteRequest> queue : this.writeQueues) {
+                    this.put(queue, new WriteRequest(null, null, 0, null));
+                }
+                return;
+            }
+
+            Set<Long> hashes = new HashSet<>();
+            for (List<String> tokens : this.selectFragments(block.values)) {
+                long hash = this.hasher.hash(tokens);
+                int shard = (int) Long.remainderUnsigned(hash, this.writeQueues.size());
+                this.counters.addWritten(hash, 1);
+                this.writerOutputs.get(shard).counted(tokens, hash, this.counters);
+                if (hashes.add(hash)) {
+                    this.capacity.addBytes(hash, block.block.length);
+                    this.put(this.writeQueues.get(shard), new WriteRequest(block.buffer, tokens, hash, block.block));
+                }
+            }
+        }
+    }
+
+    // runs on a writer thread
+    protected void write(BlockingQueue<WriteRequest> queue, FragmentOutput output) {
+        while (true) {
+            WriteRequest request;
+            try {
+                request = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (request.drained != null) {
+                request.drained.countDown();
+                continue;
+            }
+            if (request.buffer == null) {
+                return;
+            }
+
+            try {
+                this.write(output, request.tokens, request.hash, request.block);
+            } catch (IOException ex) {
+                reportFailure(request.buffer, ex);
+            }
+        }
+    }
+
+    protected <T> void put(BlockingQueue<T> queue, T item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    static class PreparedBlock {
+        final TripleBuffer buffer;
+        final List<String> values;
+        final byte[] block;
+        final CountDownLatch drained; // only for the marker of drain
+
+        PreparedBlock(TripleBuffer buffer, List<String> values, byte[] block) {
+            this.buffer = buffer;
+            this.values = values;
+            this.block = block;
+            this.drained = null;
+        }
+
+        PreparedBlock(CountDownLatch drained) {
+            this.buffer = null;
+            this.values = null;
+            this.block = null;
+            this.drained = drained;
+        }
+    }
+
+    static class WriteRequest {
+        final TripleBuffer buffer;
+        final List<String> tokens;
+        final long hash;
+        final byte[] block;
+        final CountDownLatch drained;
+
+        WriteRequest(TripleBuffer buffer, List<String> tokens, long hash, byte[] block) {
+            this.buffer = buffer;
+            this.tokens = tokens;
+            this.hash = hash;
+            this.block = block;
+            this.drained = null;
+        }
+
+        WriteRequest(CountDownLatch drained) {
+            this.buffer = null;
+            this.tokens = null;
+            this.hash = 0;
+            this.block = null;
+            this.drained = drained;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package main.java;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.LongFunction;
+
+// the streams output without any files, to plan a task: fragments are selected and buffered as usual, but only counted
+// file handles are simulated with the same policy and share of maxFileHandles as the HandlePool,
+// so the plan tells how often fragment files would be reopened
+class PlanOutput extends FragmentStreams {
+    protected static final int DEPTH = 0;   // chars in the fragment's tokens, i.e. its level in the tree
+    protected static final int BLOCKS = 1;
+
+    protected final Map<Long, int[]> shapes;
+    // the fullest page as in a real run: the prefix that was written to most, the one closest to the root on a tie
+    protected int fullest;
+    protected int fullestDepth;
+    protected List<String> fullestPrefix;
+    protected final LinkedHashMap<Long, Boolean> open; // access order, the least recently used handle first
+    protected long opens;
+    protected long reopens;
+    protected long evictions;
+
+    PlanOutput(Budget handles, Path outDirPath, String extension, Budget memory, TaskMetrics metrics) {
+        super(handles, outDirPath, extension, memory, path -> {}, metrics);
+        this.shapes = new HashMap<>();
+        this.fullest = -1;
+        this.fullestDepth = 0;
+        this.fullestPrefix = null;
+        this.open = new LinkedHashMap<>(16, 0.75f, true);
+        this.opens = 0;
+        this.reopens = 0;
+        this.evictions = 0;
+    }
+
+    @Override
+    public void write(List<String> tokens, long hash, byte[] block) throws IOException {
+        int[] shape = this.shapes.get(hash);
+        if (shape == null) {
+            shape = new int[2];
+            for (String token : tokens) {
+                shape[DEPTH] += token.length();
+            }
+            this.shapes.put(hash, shape);
+        }
+        shape[BLOCKS] += 1;
+        super.write(tokens, hash, block);
+    }
+
+    // the counts only grow, so the running maximum ends at the fullest page
+    // with several writer threads, this runs on the selector's thread, the only one that touches the counters
+    @Override
+    public void counted(List<String> tokens, long hash, PrefixCounters counters) {
+        int written = counters.getWritten(hash);
+        if (written < this.fullest) {
+            return;
+        }
+        int depth = 0;
+        for (String token : tokens) {
+            depth += token.length();
+        }
+        if (written > this.fullest || depth < this.fullestDepth) {
+            this.fullest = written;
+            this.fullestDepth = depth;
+            this.fullestPrefix = tokens;
+        }
+    }
+
+    @Override
+    protected void writeFile(long hash, Path filePath, boolean reopen, ByteBuffer[] data) {
+        if (this.open.get(hash) != null) {
+            return;
+        }
+        Iterator<Long> eldest = this.open.keySet().iterator();
+        while (this.open.size() >= Math.max(1, this.handles.budget.share())) {
+            eldest.next();
+            eldest.remove();
+            this.evictions += 1;
+        }
+        this.open.put(hash, true);
+        this.opens += 1;
+        if (reopen) {
+            this.reopens += 1;
+        }
+    }
+
+    // the last buffers are dropped, but each fragment with a trailer is opened once more to write it, as in a real run
+    @Override
+    public void finish(LongFunction<byte[]> trailers) {
+        for (Map.Entry<Long, Fragment> entry : this.fragments.entrySet()) {
+            Fragment fragment = entry.getValue();
+            if (fragment.size > 0 || trailers.apply(entry.getKey()) != null) {
+                this.writeFile(entry.getKey(), null, fragment.started, null);
+            }
+        }
+        this.handles.budget.leave();
+        this.memory.leave();
+    }
+
+    // the shape and size of the fragments of a task; sizes of a sample are scaled up to the whole input
+    public static String report(List<PlanOutput> outputs, PrefixCounters counters, FragmentCapacity capacity, String extension, double sample) {
+        int separator = FragmentOutput.separator(extension).length;
+        SortedMap<Integer, long[]> levels = new TreeMap<>(); // fragments, split fragments
+        long fragments = 0;
+        long bytes = 0;
+        int fullest = -1;
+        int fullestDepth = 0;
+        List<String> fullestPrefix = null;
+        long opens = 0;
+        long reopens = 0;
+        long evictions = 0;
+
+        for (PlanOutput output : outputs) {
+            for (Map.Entry<Long, int[]> entry : output.shapes.entrySet()) {
+                long hash = entry.getKey();
+                int[] shape = entry.getValue();
+                long[] level = levels.computeIfAbsent(shape[DEPTH], depth -> new long[2]);
+                level[0] += 1;
+                if (capacity.isSplit(hash, counters)) {
+                    level[1] += 1;
+                }
+
+                long size = capacity.getSizes().getWritten(hash) + (long) (shape[BLOCKS] - 1) * separator;
+                fragments += 1;
+                bytes += size;
+            }
+            if (output.fullest > fullest || (output.fullest == fullest && output.fullestDepth < fullestDepth)) {
+                fullest = output.fullest;
+                fullestDepth = output.fullestDepth;
+                fullestPrefix = output.fullestPrefix;
+            }
+            opens += output.opens;
+            reopens += output.reopens;
+            evictions += output.evictions;
+        }
+
+        StringBuilder result = new StringBuilder();
+        if (sample < 1) {
+            // the split fragments hardly change, but a sample misses many of the rare prefixes below them
+            result.append(String.format("Plan of %.1f%% of the subjects, with the capacity scaled along; "
+                            + "sizes are scaled up to all subjects, the numbers of fragments are lower bounds%n",
+                    100 * sample));
+        }
+        result.append(String.format("Fragments: %d, %d levels deep, %d bytes of data (without hypermedia controls)%n",
+                fragments, levels.isEmpty() ? 0 : levels.lastKey(), Math.round(bytes / sample)));
+        if (fullestPrefix != null) {
+            result.append(String.format("Fullest page: %s @ %d%n", fullestPrefix, Math.round(fullest / sample)));
+        }
+        result.append("Level\tfragments\tsplit\tfan-out");
+        for (Map.Entry<Integer, long[]> entry : levels.entrySet()) {
+            long[] level = entry.getValue();
+            long[] next = levels.get(entry.getKey() + 1);
+            String fanOut = level[1] > 0 && next != null ? String.format("%.1f", (double) next[0] / level[1]) : "-";
+            result.append(String.format("%n%d\t%d\t%d\t%s", entry.getKey(), level[0], level[1], fanOut));
+        }
+        result.append(String.format("%nFile handles%s: %d opens, %d reopens, %d evictions",
+                sample < 1 ? " (of the sample)" : "", opens, reopens, evictions));
+        return result.toString();
+    }
+}
@@ -0,0 +1,51 @@
+package main.java;
+
+import java.util.function.LongFunction;
+
+// the bookkeeping of every prefix (hash) that was encountered during fragmentation
+// count: how often the prefix was encountered
+// written: how often the prefix (fragment) was written to
+public interface PrefixCounters {
+    boolean contains(long hash);
+
+    // both return 0 for unknown prefixes
+    int getCount(long hash);
+
+    int getWritten(long hash);
+
+    // whether the counts of the prefix are estimates rather than exact
+    default boolean isEstimate(long hash) {
+        return false;
+    }
+
+    // whether the prefix was seen before for certain, so it's in the child index already
+    // sketches can't always tell, the prefixes they're unsure of are added again (the index drops the duplicates)
+    default boolean isIndexed(long hash) {
+        return this.contains(hash);
+    }
+
+    // registers an encounter of the prefix, and claims a spot in its fragment if it has fewer than `capacity` writes
+    boolean claim(long hash, int capacity);
+
+    void addWritten(long hash, int delta);
+
+    // sets both counters of a prefix, to restore them from a checkpoint
+    void put(long hash, int count, int written);
+
+    int size();
+
+    // visits every prefix, in no particular order
+    void forEach(Visitor visitor);
+
+    // where other per-prefix state (the child index) is kept, so it goes to the same heap, off-heap or mapped memory
+    default LongFunction<LongCounterTable.Slots> storage() {
+        return LongCounterTable.HeapSlots::new;
+    }
+
+    // releases the backing storage, the counters can't be used afterwards
+    void close();
+
+    interface Visitor {
+        void visit(long hash, int count, int written);
+    }
+}
@@ -0,0 +1,82 @@
+package main.java;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// periodically writes the metrics of all tasks that were started to a JSON file, so long runs can be followed from outside
+// the file is replaced atomically, readers never see half of it
+class ProgressFile {
+    protected final Path path;
+    protected final int interval;
+    protected final List<TaskMetrics> tasks;
+    protected final Gson gson;
+    protected final ScheduledExecutorService timer;
+
+    ProgressFile(Path path, int interval) {
+        this.path = path;
+        this.interval = Math.max(1, interval);
+        this.tasks = new CopyOnWriteArrayList<>();
+        this.gson = new GsonBuilder().setPrettyPrinting().create();
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "progress-file");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void start() {
+        this.timer.scheduleWithFixedDelay(this::write, 0, this.interval, TimeUnit.SECONDS);
+    }
+
+    public void add(TaskMetrics metrics) {
+        this.tasks.add(metrics);
+    }
+
+    // stops the updates, and writes the final state
+    public void close() {
+        this.timer.shutdownNow();
+        try {
+            this.timer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.write();
+    }
+
+    protected synchronized void write() {
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("updated", Instant.now().toString());
+        progress.put("heapUsed", ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+        progress.put("heapPeak", TaskMetrics.getHeapPeak());
+        List<Map<String, Object>> snapshots = new ArrayList<>();
+        for (TaskMetrics metrics : this.tasks) {
+            snapshots.add(metrics.snapshot());
+        }
+        progress.put("tasks", snapshots);
+
+        try {
+            Path temporary = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+            Files.writeString(temporary, this.gson.toJson(progress), StandardCharsets.UTF_8);
+            Files.move(temporary, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // progress reports are a convenience, the fragmentation goes on without them
+            System.out.println("Could not write the progress file: " + e);
+        }
+    }
+}
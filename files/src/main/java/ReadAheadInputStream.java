@@ -0,0 +1,113 @@
+package main.java;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// reads (and decompresses) a stream on a thread of its own, a few chunks ahead of whoever reads from this one
+// so the decompression of an input overlaps with its parsing
+class ReadAheadInputStream extends InputStream {
+    protected static final byte[] END = new byte[0];
+
+    protected final InputStream source;
+    protected final BlockingQueue<byte[]> chunks;
+    protected final Thread reader;
+    protected volatile IOException failure;
+
+    protected byte[] current;
+    protected int position;
+
+    ReadAheadInputStream(InputStream source, String name, int chunkSize, int chunkCount) {
+        this.source = source;
+        this.chunks = new ArrayBlockingQueue<>(chunkCount);
+        this.current = new byte[0];
+        this.position = 0;
+        this.reader = new Thread(() -> this.readAhead(chunkSize), "read-ahead-" + name);
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    // runs on the reader thread
+    protected void readAhead(int chunkSize) {
+        try {
+            while (true) {
+                byte[] chunk = this.source.readNBytes(chunkSize);
+                if (chunk.length == 0) {
+                    break;
+                }
+                this.chunks.put(chunk.length == chunkSize ? chunk : Arrays.copyOf(chunk, chunk.length));
+            }
+        } catch (IOException e) {
+            this.failure = e;
+        } catch (InterruptedException e) {
+            // the stream was closed before it was read completely
+            return;
+        }
+
+        try {
+            this.chunks.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // makes sure there is something left to read in the current chunk, returns false at the end of the stream
+    protected boolean next() throws IOException {
+        while (this.position == this.current.length) {
+            if (this.current == END) {
+                return false;
+            }
+            try {
+                this.current = this.chunks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            this.position = 0;
+            if (this.current == END && this.failure != null) {
+                throw this.failure;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!this.next()) {
+            return -1;
+        }
+        return this.current[this.position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!this.next()) {
+            return -1;
+        }
+        int count = Math.min(len, this.current.length - this.position);
+        System.arraycopy(this.current, this.position, b, off, count);
+        this.position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return this.current.length - this.position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.reader.interrupt();
+        try {
+            this.reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.source.close();
+    }
+}
@@ -0,0 +1,300 @@
+package main.java;
+
+import java.util.function.LongFunction;
+
+// approximate prefix counters, for dumps whose prefixes don't fit in memory
+// a bounded number of prefixes is counted exactly; the others are saturated: they're forgotten, and covered by a Bloom
+// filter (which ones saturated) and two count-min sketches (how often they were encountered and written)
+// a prefix saturates once it rejects a claim, or when the exact table is full and it's among the least encountered ones
+// saturated prefixes are full: they don't accept any more writes, except forced ones, which only go to the sketches
+// the table, the filter and the sketches all fit in the given memory, the table's growth included
+// the child index doesn't, it still takes a relation per prefix, so it's kept in memory-mapped files instead of the heap
+//
+// the errors are one-sided:
+// - a prefix that was never seen is taken for a saturated one with the Bloom filter's false-positive rate,
+//   about (1 - e^(-k n / m))^k for n saturated prefixes in m bits; its values then go to longer prefixes
+//   it's still added to the child index, and counted as full once it turns a value away, so these stay reachable
+// - the counts of saturated prefixes are never too low, and too high by at most e / width times the sum of all counts
+//   that were added to the sketch, with a probability of at least 1 - e^(-depth); conservative updates keep it well below that
+// a prefix that's saturated before it's full is counted as one more than the capacity, like a full one,
+// so it gets hypermedia controls that link the values that go past it from then on
+// forEach only visits the exact counters
+class SketchCounters implements PrefixCounters {
+    protected static final int BLOOM_HASHES = 7;
+    protected static final int DEPTH = 4;
+    protected static final int SLOT_BYTES = 16;
+    protected static final long MIN_CAPACITY = 1 << 10;
+
+    protected final LongCounterTable exact;
+    protected final long maxCapacity;   // slots of the exact table
+    protected final int maxSize;        // exact prefixes before the least encountered ones are saturated
+    protected final int subjects;       // the capacity of a fragment, 0 if the counters aren't claimed
+    protected final long[] bloom;
+    protected final long bloomBits;
+    protected final int[] counts;       // DEPTH rows of `width` cells
+    protected final int[] written;
+    protected final int width;
+    protected final long[] recent;      // saturated prefixes that were encountered lately, so they're indexed for certain
+    protected long saturated;
+    protected long evicted;             // saturated while they could still take writes
+    protected long countTotal;          // everything added to the count sketch
+    protected long writtenTotal;
+    protected long peakCapacity;
+
+    // the exact table gets half of the memory, the Bloom filter 3/16, the recent prefixes 1/16, the sketches an eighth each
+    SketchCounters(long memory, int subjects) {
+        // while the table grows, the old slots and the new ones (twice as many) are there at the same time
+        this.maxCapacity = Math.max(MIN_CAPACITY, Long.highestOneBit(memory / 2 / (SLOT_BYTES + SLOT_BYTES / 2)));
+        this.exact = new LongCounterTable(LongCounterTable.HeapSlots::new, Math.min(LongCounterTable.INITIAL_CAPACITY, this.maxCapacity));
+        this.maxSize = (int) Math.min(Integer.MAX_VALUE, this.maxCapacity / 4 * 3 - 1);
+        this.subjects = subjects;
+        this.bloom = new long[(int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, memory / 16 * 3 / Long.BYTES))];
+        this.bloomBits = (long) this.bloom.length * Long.SIZE;
+        this.width = (int) Math.max(1, Math.min((Integer.MAX_VALUE - 8) / DEPTH, memory / 8 / Integer.BYTES / DEPTH));
+        this.counts = new int[DEPTH * this.width];
+        this.written = new int[DEPTH * this.width];
+        this.recent = new long[(int) Math.max(1, Math.min(1 << 30, Long.highestOneBit(memory / 16 / Long.BYTES)))];
+        this.saturated = 0;
+        this.evicted = 0;
+        this.countTotal = 0;
+        this.writtenTotal = 0;
+        this.peakCapacity = this.exact.capacity();
+    }
+
+    // the memory of a task's sketches, split between the prefix counters and the fragment sizes
+    public static long memory(ConfigTask task) {
+        return (task.sketchMemory > 0 ? task.sketchMemory : 64) * 1024L * 1024L;
+    }
+
+    @Override
+    public boolean contains(long hash) {
+        return this.exact.contains(hash) || this.isSaturated(hash);
+    }
+
+    @Override
+    public int getCount(long hash) {
+        if (this.exact.contains(hash)) {
+            return this.exact.getCount(hash);
+        }
+        return this.isSaturated(hash) ? estimate(this.counts, this.width, hash) : 0;
+    }
+
+    @Override
+    public int getWritten(long hash) {
+        if (this.exact.contains(hash)) {
+            return this.exact.getWritten(hash);
+        }
+        return this.isSaturated(hash) ? estimate(this.written, this.width, hash) : 0;
+    }
+
+    @Override
+    public boolean isEstimate(long hash) {
+        return !this.exact.contains(hash) && this.isSaturated(hash);
+    }
+
+    // the Bloom filter can't tell, a prefix it takes for a saturated one may never have been seen
+    @Override
+    public boolean isIndexed(long hash) {
+        return this.exact.contains(hash) || (hash != 0 && this.recent[this.recentSlot(hash)] == hash);
+    }
+
+    @Override
+    public boolean claim(long hash, int capacity) {
+        boolean forced = capacity == Integer.MAX_VALUE; // only forced claims get past a saturated prefix
+        if (!this.exact.contains(hash) && (forced || this.isSaturated(hash))) {
+            // last-resort prefixes take every value, counting them exactly would only fill the table
+            if (!this.isSaturated(hash)) {
+                this.saturate(hash);
+            }
+            this.recent[this.recentSlot(hash)] = hash;
+            // once it turns a value away, longer prefixes may have its values, so it's counted as full (it may not have been seen before)
+            int delta = forced ? 1 : Math.max(1, this.subjects + 1 - estimate(this.counts, this.width, hash));
+            this.countTotal += delta;
+            add(this.counts, this.width, hash, delta);
+            if (forced) {
+                this.writtenTotal += 1;
+                add(this.written, this.width, hash, 1);
+            }
+            return forced;
+        }
+
+        if (this.exact.claim(hash, capacity)) {
+            this.checkSize();
+            return true;
+        }
+
+        // the prefix won't take any more writes, it's moved to the sketches
+        this.moveToSketch(hash, this.exact.getCount(hash), this.exact.getWritten(hash));
+        this.exact.remove(hash);
+        return false;
+    }
+
+    @Override
+    public void addWritten(long hash, int delta) {
+        if (!this.exact.contains(hash) && this.isSaturated(hash)) {
+            this.writtenTotal += delta;
+            add(this.written, this.width, hash, delta);
+            return;
+        }
+        this.exact.addWritten(hash, delta);
+        this.checkSize();
+    }
+
+    // the sketches aren't part of a checkpoint, so neither are their counts
+    @Override
+    public void put(long hash, int count, int written) {
+        throw new UnsupportedOperationException("Sketch counters can't be restored");
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(Integer.MAX_VALUE, this.exact.size() + this.saturated);
+    }
+
+    @Override
+    public void forEach(Visitor visitor) {
+        this.exact.forEach(visitor);
+    }
+
+    @Override
+    public LongFunction<LongCounterTable.Slots> storage() {
+        return capacity -> new LongCounterTable.BufferSlots(capacity, true);
+    }
+
+    @Override
+    public void close() {
+        this.exact.close();
+    }
+
+    // the number of prefixes in each part, the error bounds of the estimates, and the memory that was used at most
+    public String summary() {
+        double filled = 0;
+        for (long word : this.bloom) {
+            filled += Long.bitCount(word);
+        }
+        double falsePositives = Math.pow(filled / this.bloomBits, BLOOM_HASHES);
+        return String.format("%d exact, %d saturated prefixes (%d before they were full); false-positive rate %.2g, "
+                        + "counts at most %d too high (%d written) with probability %.3f; %.1f MB at most",
+                this.exact.size(), this.saturated, this.evicted, falsePositives,
+                (long) Math.ceil(Math.E / this.width * this.countTotal), (long) Math.ceil(Math.E / this.width * this.writtenTotal),
+                1 - Math.exp(-DEPTH), this.peakMemory() / 1024.0 / 1024.0);
+    }
+
+    // the filter, the recent prefixes and the sketches, and the largest the exact table has been (with the table it grew from)
+    public long peakMemory() {
+        long table = this.peakCapacity * SLOT_BYTES;
+        if (this.peakCapacity > LongCounterTable.INITIAL_CAPACITY) {
+            table += table / 2;
+        }
+        return (long) (this.bloom.length + this.recent.length) * Long.BYTES + 2L * DEPTH * this.width * Integer.BYTES + table;
+    }
+
+    // once the exact table is full, the least encountered half of its prefixes is saturated
+    // prefixes that already reached the capacity go first, then those with the lowest counts (or sizes), on a log scale
+    protected void checkSize() {
+        this.peakCapacity = Math.max(this.peakCapacity, this.exact.capacity());
+        if (this.exact.size() < this.maxSize) {
+            return;
+        }
+
+        int[] histogram = new int[Integer.SIZE + 2];
+        this.exact.forEach((hash, count, written) -> histogram[this.rank(count, written)] += 1);
+        int target = this.exact.size() / 2;
+        int threshold = 0;
+        int below = 0; // the prefixes with a lower rank all go
+        while (below + histogram[threshold] < target) {
+            below += histogram[threshold++];
+        }
+
+        int last = threshold;
+        int[] quota = {target - below}; // and this many of the threshold rank
+        this.exact.removeIf((hash, count, written) -> {
+            int rank = this.rank(count, written);
+            if (rank > last || (rank == last && quota[0] == 0)) {
+                return false;
+            }
+            if (rank == last) {
+                quota[0] -= 1;
+            }
+            if (this.subjects == 0 || written < this.subjects) {
+                this.evicted += 1;
+            }
+            this.moveToSketch(hash, this.subjects > 0 ? Math.max(count, this.subjects + 1) : count, written);
+            return true;
+        });
+    }
+
+    protected int rank(int count, int written) {
+        if (this.subjects > 0 && written >= this.subjects) {
+            return 0;
+        }
+        return 1 + Integer.SIZE - Integer.numberOfLeadingZeros(Math.max(count, written));
+    }
+
+    protected void moveToSketch(long hash, int count, int written) {
+        this.saturate(hash);
+        this.countTotal += count;
+        this.writtenTotal += written;
+        add(this.counts, this.width, hash, count);
+        add(this.written, this.width, hash, written);
+    }
+
+    protected void saturate(long hash) {
+        long h2 = mix(hash) | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = Long.remainderUnsigned(hash + i * h2, this.bloomBits);
+            this.bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        this.recent[this.recentSlot(hash)] = hash;
+        this.saturated += 1;
+    }
+
+    protected boolean isSaturated(long hash) {
+        if (this.saturated == 0) {
+            return false;
+        }
+        long h2 = mix(hash) | 1;
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+            long bit = Long.remainderUnsigned(hash + i * h2, this.bloomBits);
+            if ((this.bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected int recentSlot(long hash) {
+        return (int) (mix(hash) & (this.recent.length - 1));
+    }
+
+    // conservative update: only the cells that hold the current estimate are raised
+    protected static void add(int[] sketch, int width, long hash, int delta) {
+        int estimate = estimate(sketch, width, hash);
+        int target = (int) Math.min(Integer.MAX_VALUE, (long) estimate + delta);
+        for (int row = 0; row < DEPTH; row++) {
+            int cell = cell(width, hash, row);
+            if (sketch[cell] < target) {
+                sketch[cell] = target;
+            }
+        }
+    }
+
+    protected static int estimate(int[] sketch, int width, long hash) {
+        int result = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            result = Math.min(result, sketch[cell(width, hash, row)]);
+        }
+        return result;
+    }
+
+    protected static int cell(int width, long hash, int row) {
+        return row * width + (int) Long.remainderUnsigned(mix(hash + row * 0x9e3779b97f4a7c15L), width);
+    }
+
+    // splitmix64 finalizer, so every row and Bloom hash sees different bits
+    protected static long mix(long hash) {
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+}
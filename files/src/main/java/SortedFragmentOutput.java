@@ -0,0 +1,367 @@
+package main.java;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+// writes every fragment file exactly once, instead of juggling file handles
+// (fragment, block) records are collected in sorted runs on disk
+// once all data is in, the runs are merged by fragment, and each fragment file is written in one go
+// in incremental runs, a fragment file is only written when it differs from the previous run (or linked from there when staged)
+// blank nodes don't make it differ, the parser gives them the same labels in every run (see InputFiles.labels)
+class SortedFragmentOutput implements FragmentOutput {
+    protected static final int MERGE_FAN_IN = 64;             // how many runs are merged at once
+
+    protected final Path outDirPath;
+    protected final String extension;
+    protected final byte[] separator;
+    protected final Budget memory; // used to sort records before they're spilled
+    protected final Consumer<Path> completed;
+    @Nullable
+    protected final FragmentIndex index;
+    protected final MessageDigest digest;
+    protected final List<Record> pending;
+    protected final List<Path> runs;
+    protected final Set<Path> checkpointed; // runs that a checkpoint refers to, they're kept until it's discarded
+    protected Path runDir;
+    protected long pendingBytes;
+    protected long sequence;
+    protected long blocks;
+
+    // the block that was written last, as a block is usually written to several fragments in a row
+    protected byte[] lastBlock;
+
+    SortedFragmentOutput(Path outDirPath, String extension, Budget memory, Consumer<Path> completed, @Nullable FragmentIndex index) {
+        this.outDirPath = outDirPath;
+        this.extension = extension;
+        this.separator = FragmentOutput.separator(extension);
+        this.memory = memory;
+        this.memory.join();
+        this.completed = completed;
+        this.index = index;
+        try {
+            this.digest = MessageDigest.getInstance("MD5"); // only a fingerprint, no need for anything stronger
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        this.pending = new ArrayList<>();
+        this.runs = new ArrayList<>();
+        this.checkpointed = new HashSet<>();
+        this.runDir = null;
+        this.pendingBytes = 0;
+        this.sequence = 0;
+        this.blocks = 0;
+    }
+
+    @Override
+    public void write(List<String> tokens, long hash, byte[] block) throws IOException {
+        if (block != this.lastBlock) {
+            this.lastBlock = block;
+            this.blocks += 1;
+        }
+
+        Record record = new Record(hash, this.sequence++, this.blocks, String.join("+", tokens) + this.extension, block);
+        this.pending.add(record);
+        this.pendingBytes += record.size();
+
+        if (this.pendingBytes > this.memory.share()) {
+            this.pending.sort(Record.ORDER);
+            this.runs.add(this.spill(this.pending.iterator()));
+            this.pending.clear();
+            this.pendingBytes = 0;
+        }
+    }
+
+    @Override
+    public void finish(LongFunction<byte[]> trailers) throws IOException {
+        this.pending.sort(Record.ORDER);
+        if (this.runs.isEmpty()) {
+            // everything fit in memory, no need to go through the disk
+            this.writeFragments(this.pending.iterator(), trailers);
+            this.pending.clear();
+            this.memory.leave();
+            return;
+        }
+
+        if (!this.pending.isEmpty()) {
+            this.runs.add(this.spill(this.pending.iterator()));
+            this.pending.clear();
+        }
+
+        // reduce the number of runs until they can be merged in one pass
+        List<Path> runs = new ArrayList<>(this.runs);
+        while (runs.size() > MERGE_FAN_IN) {
+            List<Path> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+                List<Path> group = runs.subList(i, Math.min(i + MERGE_FAN_IN, runs.size()));
+                try (MergeIterator iterator = new MergeIterator(group)) {
+                    merged.add(this.spill(iterator));
+                }
+                for (Path run : group) {
+                    this.delete(run);
+                }
+            }
+            runs = merged;
+        }
+
+        try (MergeIterator iterator = new MergeIterator(runs)) {
+            this.writeFragments(iterator, trailers);
+        }
+        for (Path run : runs) {
+            this.delete(run);
+        }
+        if (this.checkpointed.isEmpty()) {
+            Files.delete(this.runDir);
+        }
+        this.runs.clear();
+        this.memory.leave();
+    }
+
+    protected void delete(Path run) throws IOException {
+        if (!this.checkpointed.contains(run)) {
+            Files.delete(run);
+        }
+    }
+
+    // the pending records are spilled, so the runs hold everything that was written so far
+    @Override
+    public void checkpoint(DataOutputStream out) throws IOException {
+        if (!this.pending.isEmpty()) {
+            this.pending.sort(Record.ORDER);
+            this.runs.add(this.spill(this.pending.iterator()));
+            this.pending.clear();
+            this.pendingBytes = 0;
+        }
+        this.checkpointed.addAll(this.runs);
+
+        out.writeUTF(this.runDir == null ? "" : this.runDir.toString());
+        out.writeLong(this.sequence);
+        out.writeLong(this.blocks);
+        out.writeInt(this.runs.size());
+        for (Path run : this.runs) {
+            out.writeUTF(run.getFileName().toString());
+        }
+    }
+
+    // runs that were spilled after the checkpoint are removed; no fragment file exists before the output is finished
+    @Override
+    public List<String> resume(DataInputStream in) throws IOException {
+        String runDir = in.readUTF();
+        this.sequence = in.readLong();
+        this.blocks = in.readLong();
+        int size = in.readInt();
+        if (runDir.isEmpty()) {
+            return List.of();
+        }
+
+        this.runDir = Path.of(runDir);
+        for (int i = 0; i < size; i++) {
+            Path run = this.runDir.resolve(in.readUTF());
+            if (!Files.exists(run)) {
+                throw new IOException(run + " of the checkpoint is missing");
+            }
+            this.runs.add(run);
+        }
+        this.checkpointed.addAll(this.runs);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.runDir)) {
+            for (Path file : files) {
+                if (!this.checkpointed.contains(file)) {
+                    Files.delete(file);
+                }
+            }
+        }
+        return List.of();
+    }
+
+    @Override
+    public void discardCheckpoint() throws IOException {
+        for (Path run : this.checkpointed) {
+            Files.deleteIfExists(run);
+        }
+        this.checkpointed.clear();
+        if (this.runDir != null) {
+            Files.deleteIfExists(this.runDir);
+        }
+    }
+
+    // writes sorted records to a new run file
+    protected Path spill(Iterator<Record> records) throws IOException {
+        if (this.runDir == null) {
+            // next to the output directory, so it's on the same disk without being served
+            this.runDir = Files.createTempDirectory(this.outDirPath.getParent(), ".runs-");
+        }
+
+        Path run = Files.createTempFile(this.runDir, "run", ".bin");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+            while (records.hasNext()) {
+                records.next().write(out);
+            }
+        }
+        return run;
+    }
+
+    // records are grouped by fragment, and the first record of each fragment determines its file name
+    // each fragment ends with its trailer, if it has one
+    protected void writeFragments(Iterator<Record> records, LongFunction<byte[]> trailers) throws IOException {
+        OutputStream out = null;
+        String currentName = null;
+        long currentHash = 0;
+        long currentBlock = 0;
+
+        while (records.hasNext()) {
+            Record record = records.next();
+            if (out != null && record.hash == currentHash && record.block == currentBlock) {
+                // token lists that only differ in empty tokens share a fragment, the block only has to be in there once
+                continue;
+            }
+            currentBlock = record.block;
+
+            if (out == null || record.hash != currentHash) {
+                if (out != null) {
+                    this.close(out, currentName, currentHash, trailers);
+                }
+                currentName = record.name;
+                out = this.open(currentName);
+                currentHash = record.hash;
+            } else {
+                out.write(this.separator);
+            }
+            out.write(record.data);
+        }
+
+        if (out != null) {
+            this.close(out, currentName, currentHash, trailers);
+        }
+    }
+
+    protected OutputStream open(String name) throws IOException {
+        if (this.index != null) {
+            // collected in memory first, as it may not have to be written at all
+            return new ByteArrayOutputStream();
+        }
+        return new BufferedOutputStream(new FileOutputStream(String.valueOf(this.outDirPath.resolve(name)), true), 1 << 16);
+    }
+
+    protected void close(OutputStream out, String name, long hash, LongFunction<byte[]> trailers) throws IOException {
+        byte[] trailer = trailers.apply(hash);
+        if (trailer != null) {
+            out.write(trailer);
+        }
+        out.close();
+
+        Path filePath = this.outDirPath.resolve(name);
+        if (this.index != null) {
+            byte[] data = ((ByteArrayOutputStream) out).toByteArray();
+            if (!this.index.update(hash, name, this.digest.digest(data)) && this.index.keep(filePath)) {
+                return;
+            }
+            Files.write(filePath, data);
+            // the compressed copy is outdated; it's made again if sidecars are enabled
+            Files.deleteIfExists(filePath.resolveSibling(name + ".gz"));
+        }
+        this.completed.accept(filePath);
+    }
+
+    static class Record {
+        static final Comparator<Record> ORDER = Comparator.<Record>comparingLong(r -> r.hash).thenComparingLong(r -> r.sequence);
+
+        final long hash;
+        final long sequence;
+        final long block;
+        final String name;
+        final byte[] data;
+
+        Record(long hash, long sequence, long block, String name, byte[] data) {
+            this.hash = hash;
+            this.sequence = sequence;
+            this.block = block;
+            this.name = name;
+            this.data = data;
+        }
+
+        // estimated memory use; the data is shared between records of the same block, but is counted for each of them
+        long size() {
+            return 64 + 2L * this.name.length() + this.data.length;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(this.hash);
+            out.writeLong(this.sequence);
+            out.writeLong(this.block);
+            out.writeUTF(this.name);
+            out.writeInt(this.data.length);
+            out.write(this.data);
+        }
+
+        static Record read(DataInputStream in) throws IOException {
+            long hash;
+            try {
+                hash = in.readLong();
+            } catch (EOFException e) {
+                return null;
+            }
+            long sequence = in.readLong();
+            long block = in.readLong();
+            String name = in.readUTF();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return new Record(hash, sequence, block, name, data);
+        }
+    }
+
+    // k-way merge of sorted run files
+    static class MergeIterator implements Iterator<Record>, Closeable {
+        protected final List<DataInputStream> inputs;
+        protected final PriorityQueue<Map.Entry<Record, DataInputStream>> heads;
+
+        MergeIterator(List<Path> runs) throws IOException {
+            this.inputs = new ArrayList<>();
+            this.heads = new PriorityQueue<>(Map.Entry.comparingByKey(Record.ORDER));
+            for (Path run : runs) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+                this.inputs.add(in);
+                this.advance(in);
+            }
+        }
+
+        protected void advance(DataInputStream in) {
+            try {
+                Record record = Record.read(in);
+                if (record != null) {
+                    this.heads.add(new AbstractMap.SimpleEntry<>(record, in));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !this.heads.isEmpty();
+        }
+
+        @Override
+        public Record next() {
+            Map.Entry<Record, DataInputStream> head = this.heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            this.advance(head.getValue());
+            return head.getKey();
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (DataInputStream in : this.inputs) {
+                in.close();
+            }
+        }
+    }
+}
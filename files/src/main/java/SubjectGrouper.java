@@ -0,0 +1,332 @@
+package main.java;
+
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.sparql.core.Quad;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+// groups the statements of each subject, for inputs in which they aren't contiguous
+// statements are collected in memory, and spilled to sorted runs on disk when there are too many of them
+// once all data is in, the runs are merged by subject, and the destination gets every subject in one block
+// subjects arrive in sorted order, and the statements of a subject in the order they were parsed
+// so the result doesn't depend on how much memory there is
+// blank node subjects are never fragmented, their statements are passed on as they come in
+class SubjectGrouper implements StreamRDF {
+    protected static final int MERGE_FAN_IN = 64;             // how many runs are merged at once
+
+    protected final StreamRDF destination;
+    protected final Path runParent;
+    protected final long memory;                               // bytes of statements that are sorted in memory
+    protected final List<Record> pending;
+    protected final List<Path> runs;
+    protected final ByteArrayOutputStream encoded;
+    protected final DataOutputStream encoder;
+    protected Path runDir;
+    protected long pendingBytes;
+    protected long sequence;
+
+    SubjectGrouper(StreamRDF destination, Path runParent, long memory) {
+        this.destination = destination;
+        this.runParent = runParent;
+        this.memory = memory;
+        this.pending = new ArrayList<>();
+        this.runs = new ArrayList<>();
+        this.encoded = new ByteArrayOutputStream();
+        this.encoder = new DataOutputStream(this.encoded);
+        this.runDir = null;
+        this.pendingBytes = 0;
+        this.sequence = 0;
+    }
+
+    @Override
+    public void start() {
+        this.destination.start();
+    }
+
+    @Override
+    public void triple(Triple triple) {
+        if (!triple.getSubject().isURI()) {
+            this.destination.triple(triple);
+            return;
+        }
+        this.add(triple.getSubject().getURI(), null, triple.getPredicate(), triple.getObject());
+    }
+
+    @Override
+    public void quad(Quad quad) {
+        if (!quad.getSubject().isURI()) {
+            this.destination.quad(quad);
+            return;
+        }
+        this.add(quad.getSubject().getURI(), quad.getGraph(), quad.getPredicate(), quad.getObject());
+    }
+
+    protected void add(String subject, Node graph, Node predicate, Node object) {
+        try {
+            this.encoded.reset();
+            this.encoder.writeBoolean(graph != null);
+            if (graph != null) {
+                writeNode(this.encoder, graph);
+            }
+            writeNode(this.encoder, predicate);
+            writeNode(this.encoder, object);
+            this.encoder.flush();
+
+            Record record = new Record(subject, this.sequence++, this.encoded.toByteArray());
+            this.pending.add(record);
+            this.pendingBytes += record.size();
+
+            if (this.pendingBytes > this.memory) {
+                this.pending.sort(Record.ORDER);
+                this.runs.add(this.spill(this.pending.iterator()));
+                this.pending.clear();
+                this.pendingBytes = 0;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void finish() {
+        try {
+            this.pending.sort(Record.ORDER);
+            if (this.runs.isEmpty()) {
+                // everything fit in memory, no need to go through the disk
+                this.replay(this.pending.iterator());
+                this.pending.clear();
+            } else {
+                this.merge();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.destination.finish();
+    }
+
+    protected void merge() throws IOException {
+        if (!this.pending.isEmpty()) {
+            this.runs.add(this.spill(this.pending.iterator()));
+            this.pending.clear();
+        }
+        System.out.println("Grouping " + this.sequence + " statements by subject, from " + this.runs.size() + " runs");
+
+        // reduce the number of runs until they can be merged in one pass
+        List<Path> runs = new ArrayList<>(this.runs);
+        while (runs.size() > MERGE_FAN_IN) {
+            List<Path> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+                List<Path> group = runs.subList(i, Math.min(i + MERGE_FAN_IN, runs.size()));
+                try (MergeIterator iterator = new MergeIterator(group)) {
+                    merged.add(this.spill(iterator));
+                }
+                for (Path run : group) {
+                    Files.delete(run);
+                }
+            }
+            runs = merged;
+        }
+
+        try (MergeIterator iterator = new MergeIterator(runs)) {
+            this.replay(iterator);
+        }
+        for (Path run : runs) {
+            Files.delete(run);
+        }
+        Files.delete(this.runDir);
+        this.runs.clear();
+    }
+
+    // writes sorted records to a new run file
+    protected Path spill(Iterator<Record> records) throws IOException {
+        if (this.runDir == null) {
+            this.runDir = Files.createTempDirectory(this.runParent, ".groups-");
+        }
+
+        Path run = Files.createTempFile(this.runDir, "run", ".bin");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+            while (records.hasNext()) {
+                records.next().write(out);
+            }
+        }
+        return run;
+    }
+
+    // passes the sorted statements on, which puts the statements of each subject next to each other
+    protected void replay(Iterator<Record> records) throws IOException {
+        Node subject = null;
+        while (records.hasNext()) {
+            Record record = records.next();
+            if (subject == null || !subject.getURI().equals(record.subject)) {
+                subject = NodeFactory.createURI(record.subject);
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.data));
+            Node graph = in.readBoolean() ? readNode(in) : null;
+            Node predicate = readNode(in);
+            Node object = readNode(in);
+            if (graph == null) {
+                this.destination.triple(Triple.create(subject, predicate, object));
+            } else {
+                this.destination.quad(Quad.create(graph, subject, predicate, object));
+            }
+        }
+    }
+
+    protected static void writeNode(DataOutputStream out, Node node) throws IOException {
+        if (node.isURI()) {
+            out.writeByte('U');
+            writeString(out, node.getURI());
+        } else if (node.isBlank()) {
+            out.writeByte('B');
+            writeString(out, node.getBlankNodeLabel());
+        } else if (node.isLiteral()) {
+            out.writeByte('L');
+            writeString(out, node.getLiteralLexicalForm());
+            writeString(out, node.getLiteralLanguage());
+            writeString(out, node.getLiteralDatatypeURI());
+        } else {
+            throw new IOException("Can't group statements with " + node);
+        }
+    }
+
+    protected static Node readNode(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        switch (kind) {
+            case 'U':
+                return NodeFactory.createURI(readString(in));
+            case 'B':
+                return NodeFactory.createBlankNode(readString(in));
+            case 'L':
+                String lexical = readString(in);
+                String language = readString(in);
+                String datatype = readString(in);
+                if (!language.isEmpty()) {
+                    return NodeFactory.createLiteral(lexical, language);
+                }
+                return NodeFactory.createLiteral(lexical, TypeMapper.getInstance().getSafeTypeByName(datatype));
+            default:
+                throw new IOException("Corrupt grouping run, unknown node kind " + kind);
+        }
+    }
+
+    // writeUTF is limited to 64 KB, which literals may exceed
+    protected static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    protected static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // prefixes only matter to the parser
+    @Override
+    public void base(String base) {
+
+    }
+
+    @Override
+    public void prefix(String prefix, String iri) {
+
+    }
+
+    static class Record {
+        static final Comparator<Record> ORDER = Comparator.<Record, String>comparing(r -> r.subject).thenComparingLong(r -> r.sequence);
+
+        final String subject;
+        final long sequence;
+        final byte[] data;
+
+        Record(String subject, long sequence, byte[] data) {
+            this.subject = subject;
+            this.sequence = sequence;
+            this.data = data;
+        }
+
+        // estimated memory use
+        long size() {
+            return 64 + 2L * this.subject.length() + this.data.length;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            writeString(out, this.subject);
+            out.writeLong(this.sequence);
+            out.writeInt(this.data.length);
+            out.write(this.data);
+        }
+
+        static Record read(DataInputStream in) throws IOException {
+            String subject;
+            try {
+                subject = readString(in);
+            } catch (EOFException e) {
+                return null;
+            }
+            long sequence = in.readLong();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return new Record(subject, sequence, data);
+        }
+    }
+
+    // k-way merge of sorted run files
+    static class MergeIterator implements Iterator<Record>, Closeable {
+        protected final List<DataInputStream> inputs;
+        protected final PriorityQueue<Map.Entry<Record, DataInputStream>> heads;
+
+        MergeIterator(List<Path> runs) throws IOException {
+            this.inputs = new ArrayList<>();
+            this.heads = new PriorityQueue<>(Map.Entry.comparingByKey(Record.ORDER));
+            for (Path run : runs) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+                this.inputs.add(in);
+                this.advance(in);
+            }
+        }
+
+        protected void advance(DataInputStream in) {
+            try {
+                Record record = Record.read(in);
+                if (record != null) {
+                    this.heads.add(new AbstractMap.SimpleEntry<>(record, in));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !this.heads.isEmpty();
+        }
+
+        @Override
+        public Record next() {
+            Map.Entry<Record, DataInputStream> head = this.heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            this.advance(head.getValue());
+            return head.getKey();
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (DataInputStream in : this.inputs) {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package main.java;
+
+import java.util.*;
+
+// selects the fragments a (normalized) value should be written to
+// walks the value once per starting position, keeping the token boundaries and token hashes up to date as it goes
+// token strings are only created for prefixes that are actually selected
+class SubstringEnumerator {
+    protected final PrefixCounters counters;
+    protected final FragmentCapacity capacity;
+    protected final Hasher hasher;
+    protected final ChildIndex children;
+    protected long evaluated; // number of prefixes that were tried
+
+    // scratch space, reused between values; holds the start/end offsets of all completed tokens
+    protected int[] tokenStarts;
+    protected int[] tokenEnds;
+
+    SubstringEnumerator(PrefixCounters counters, FragmentCapacity capacity, Hasher hasher) {
+        this.counters = counters;
+        this.capacity = capacity;
+        this.hasher = hasher;
+        this.children = new ChildIndex(hasher, counters.storage());
+        this.tokenStarts = new int[16];
+        this.tokenEnds = new int[16];
+    }
+
+    public Set<List<String>> select(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.isSurrogate(value.charAt(i))) {
+                // the tokenizer works on chars, the original regex on code points
+                // these rare values take the original route to keep the fragments identical
+                return this.selectLegacy(value);
+            }
+        }
+
+        Set<List<String>> substringSet = new HashSet<>();
+        int length = value.length();
+        char[] valueValue = new char[2 * length + 1];
+        value.getChars(0, length, valueValue, 0);
+        valueValue[length] = ' ';
+        value.getChars(0, length, valueValue, length + 1);
+
+        boolean flagNext = true;
+        for (int start = 0; start < length; start++) {
+            char first = valueValue[start];
+            if (!Character.isLetter(first) && !Character.isDigit(first)) {
+                flagNext = true;
+                continue;
+            } else if (!flagNext) {
+                continue;
+            }
+            flagNext = false;
+
+            int tokenCount = 0;     // number of completed tokens
+            long completed = 0;     // sum of the completed tokens' hashes
+            long tokenState = 0;    // hash state of the token that is being extended
+            int tokenStart = -1;    // start of the token that is being extended, -1 if there is none
+            boolean selected = false;
+
+            for (int i = start; i < start + length; i++) {
+                char newChar = valueValue[i];
+                if (Character.isLetter(newChar) || Character.isDigit(newChar)) {
+                    if (tokenStart < 0) {
+                        tokenStart = i;
+                        tokenState = this.hasher.startToken();
+                    }
+                    tokenState = this.hasher.extendToken(tokenState, newChar);
+                } else if (tokenStart >= 0) {
+                    completed += this.hasher.finishToken(tokenState);
+                    this.addToken(tokenCount++, tokenStart, i);
+                    tokenStart = -1;
+                }
+
+                if (newChar != ' ') {
+                    long hash = completed;
+                    if (tokenStart >= 0) {
+                        hash += this.hasher.finishToken(tokenState);
+                    }
+
+                    if (this.hasher.isAuditing()) {
+                        this.hasher.audit(hash, this.tokens(valueValue, tokenCount, tokenStart, i + 1));
+                    }
+
+                    // the tokens are only built for new prefixes, and for the one that's selected
+                    List<String> tokens = null;
+                    if (this.isNew(hash)) {
+                        tokens = this.tokens(valueValue, tokenCount, tokenStart, i + 1);
+                        this.index(hash, tokens);
+                    }
+
+                    if (this.register(hash, false)) {
+                        substringSet.add(tokens != null ? tokens : this.tokens(valueValue, tokenCount, tokenStart, i + 1));
+                        selected = true;
+                        break;
+                    }
+                }
+            }
+
+            if (!selected) {
+                // Last resort, all tried fragments were full
+                substringSet.add(this.lastResort(new String(valueValue, start, length)));
+            }
+        }
+
+        return substringSet;
+    }
+
+    // increments the prefix' counts, and claims a spot in the fragment if there is one left (or if forced)
+    protected boolean register(long hash, boolean force) {
+        this.evaluated += 1;
+        if (force) {
+            return this.counters.claim(hash, Integer.MAX_VALUE);
+        } else if (this.capacity.isFullBySize(hash)) {
+            // still counts as an encounter
+            return this.counters.claim(hash, 0);
+        }
+        return this.counters.claim(hash, this.capacity.getSubjects());
+    }
+
+    // new prefixes are added to the child index, so the hypermedia controls can find them without guessing
+    protected boolean isNew(long hash) {
+        return !this.counters.isIndexed(hash);
+    }
+
+    protected void index(long hash, List<String> tokens) {
+        this.children.add(hash, tokens);
+    }
+
+    public ChildIndex getChildIndex() {
+        return this.children;
+    }
+
+    public long getEvaluated() {
+        return this.evaluated;
+    }
+
+    protected void addToken(int index, int start, int end) {
+        if (index == this.tokenStarts.length) {
+            this.tokenStarts = Arrays.copyOf(this.tokenStarts, 2 * index);
+            this.tokenEnds = Arrays.copyOf(this.tokenEnds, 2 * index);
+        }
+        this.tokenStarts[index] = start;
+        this.tokenEnds[index] = end;
+    }
+
+    protected List<String> tokens(char[] chars, int tokenCount, int tokenStart, int end) {
+        List<String> result = new ArrayList<>(tokenCount + 1);
+        for (int t = 0; t < tokenCount; t++) {
+            result.add(new String(chars, this.tokenStarts[t], this.tokenEnds[t] - this.tokenStarts[t]));
+        }
+        if (tokenStart >= 0) {
+            result.add(new String(chars, tokenStart, end - tokenStart));
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    // the original implementation, rebuilding and re-splitting the substring for every character
+    protected Set<List<String>> selectLegacy(String value) {
+        Set<List<String>> substringSet = new HashSet<>();
+        String valueValue = value + " " + value;
+
+        outerLoop:
+        for (Integer start : this.startingPositions(value)) {
+            String currentSubstring = "";
+            for (int i = start; i < start + value.length(); i++) {
+                char newChar = valueValue.charAt(i);
+                currentSubstring += newChar;
+
+                if (newChar != ' ') {
+                    List<String> tokens = Arrays.asList(currentSubstring.strip().split("[^\\p{IsDigit}\\p{IsLetter}]+"));
+                    Collections.sort(tokens);
+                    long hash = this.hasher.hash(tokens);
+                    this.hasher.audit(hash, tokens);
+                    if (this.isNew(hash)) {
+                        this.index(hash, tokens);
+                    }
+                    if (this.register(hash, false)) {
+                        substringSet.add(tokens);
+                        continue outerLoop;
+                    }
+                }
+            }
+
+            substringSet.add(this.lastResort(currentSubstring));
+        }
+
+        return substringSet;
+    }
+
+    // Last resort, all tried fragments were full
+    protected List<String> lastResort(String substring) {
+        List<String> tokens = Arrays.asList(substring.split(" "));
+        Collections.sort(tokens);
+        long hash = this.hasher.hash(tokens);
+        this.hasher.audit(hash, tokens);
+        if (this.isNew(hash)) {
+            this.index(hash, tokens);
+        }
+        this.register(hash, true);
+        return tokens;
+    }
+
+    private List<Integer> startingPositions(String value) {
+        boolean flagNext = true;
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!Character.isLetter(c) && !Character.isDigit(c)) {
+                flagNext = true;
+            } else {
+                if (flagNext) {
+                    flagNext = false;
+                    result.add(i);
+                }
+            }
+        }
+        return result;
+    }
+}
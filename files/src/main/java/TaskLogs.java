@@ -0,0 +1,85 @@
+package main.java;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+// keeps the console output of tasks that run at the same time apart
+// once installed as System.out, everything a task prints (from any thread it started) is collected
+// and printed in one piece when the task is done; output outside of any task goes straight through
+class TaskLogs extends OutputStream {
+    protected final PrintStream console;
+    protected final InheritableThreadLocal<ByteArrayOutputStream> current;
+    protected final Set<ByteArrayOutputStream> open;
+
+    protected TaskLogs(PrintStream console) {
+        this.console = console;
+        this.current = new InheritableThreadLocal<>();
+        this.open = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    public static TaskLogs install() {
+        TaskLogs logs = new TaskLogs(System.out);
+        System.setOut(new PrintStream(logs, true, StandardCharsets.UTF_8));
+
+        // whatever was collected still gets printed when the program exits early
+        Runtime.getRuntime().addShutdownHook(new Thread(logs::printOpen));
+        return logs;
+    }
+
+    // collects the output of the current thread, and all threads it starts from now on
+    public void start() {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        this.open.add(log);
+        this.current.set(log);
+    }
+
+    public void end() {
+        ByteArrayOutputStream log = this.current.get();
+        this.current.remove();
+        if (log != null && this.open.remove(log)) {
+            this.print(log);
+        }
+    }
+
+    protected void printOpen() {
+        synchronized (this.open) {
+            for (ByteArrayOutputStream log : this.open) {
+                this.print(log);
+            }
+            this.open.clear();
+        }
+    }
+
+    protected void print(ByteArrayOutputStream log) {
+        synchronized (this.console) {
+            this.console.write(log.toByteArray(), 0, log.size());
+            this.console.flush();
+        }
+    }
+
+    protected OutputStream target() {
+        ByteArrayOutputStream log = this.current.get();
+        return log == null ? this.console : log;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.target().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        this.target().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.target().flush();
+    }
+}
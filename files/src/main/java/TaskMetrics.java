@@ -0,0 +1,415 @@
+package main.java;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// progress and timings of one task, updated by all of its threads
+// a task goes through the phases parsing (which includes selecting fragments and writing them), hypermedia, finishing and done
+// the counters are cheap to update, and can be read at any time: through JMX, the progress file, or the summary at the end
+public class TaskMetrics implements TaskMetricsMBean {
+    protected static final String[] PHASES = {"parsing", "hypermedia", "finishing"};
+
+    protected final String name;
+    protected final long started;
+    protected final long[] phaseNanos;
+    protected volatile int phase;
+    protected volatile long phaseStarted;
+
+    protected final LongAdder triples;
+    protected final LongAdder blocks;
+    protected final LongAdder substrings;
+    protected final LongAdder fragmentWrites;
+    protected final LongAdder filesCompleted;
+    protected final LongAdder handleOpens;
+    protected final LongAdder handleEvictions;
+    protected final LongAdder selectionNanos;
+    protected final LongAdder writeNanos;
+    protected final LongAdder normalized;
+    protected final LongAdder normalizedAscii;
+    protected final LongAdder normalizedCached;
+
+    protected volatile long[] fragmentSizes;
+    protected volatile long[] fragmentBytes;
+    protected volatile long[] fragmentBytesPercentiles; // p50, p90, p99 and the largest
+
+    public TaskMetrics(String name) {
+        this.name = name;
+        this.started = System.nanoTime();
+        this.phaseNanos = new long[PHASES.length];
+        this.phase = 0;
+        this.phaseStarted = this.started;
+
+        this.triples = new LongAdder();
+        this.blocks = new LongAdder();
+        this.substrings = new LongAdder();
+        this.fragmentWrites = new LongAdder();
+        this.filesCompleted = new LongAdder();
+        this.handleOpens = new LongAdder();
+        this.handleEvictions = new LongAdder();
+        this.selectionNanos = new LongAdder();
+        this.writeNanos = new LongAdder();
+        this.normalized = new LongAdder();
+        this.normalizedAscii = new LongAdder();
+        this.normalizedCached = new LongAdder();
+        this.fragmentSizes = new long[0];
+        this.fragmentBytes = new long[0];
+        this.fragmentBytesPercentiles = new long[4];
+    }
+
+    // makes the metrics visible as main.java:type=TaskMetrics,name=<task name>, replacing those of an earlier task with the same name
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("main.java:type=TaskMetrics,name=" + ObjectName.quote(this.name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            // the metrics are still reported, just not through JMX
+            System.out.println("Could not register the metrics of " + this.name + ": " + e);
+        }
+    }
+
+    // ends the current phase, and starts the next one
+    public synchronized void nextPhase() {
+        long now = System.nanoTime();
+        if (this.phase < PHASES.length) {
+            this.phaseNanos[this.phase] = now - this.phaseStarted;
+            this.phaseStarted = now;
+            this.phase += 1;
+        }
+    }
+
+    public void addTriple() {
+        this.triples.increment();
+    }
+
+    public void addTriples(long count) {
+        this.triples.add(count);
+    }
+
+    public void addBlock() {
+        this.blocks.increment();
+    }
+
+    public void addSubstrings(long count) {
+        this.substrings.add(count);
+    }
+
+    public void addFragmentWrite() {
+        this.fragmentWrites.increment();
+    }
+
+    public void addFileCompleted() {
+        this.filesCompleted.increment();
+    }
+
+    public void addHandleOpen() {
+        this.handleOpens.increment();
+    }
+
+    public void addHandleEviction() {
+        this.handleEvictions.increment();
+    }
+
+    public void addSelectionNanos(long nanos) {
+        this.selectionNanos.add(nanos);
+    }
+
+    public void addWriteNanos(long nanos) {
+        this.writeNanos.add(nanos);
+    }
+
+    // a value was normalized: on the ASCII fast path, from the cache, or neither
+    public void addNormalized(boolean ascii, boolean cached) {
+        this.normalized.increment();
+        if (ascii) {
+            this.normalizedAscii.increment();
+        } else if (cached) {
+            this.normalizedCached.increment();
+        }
+    }
+
+    // buckets the fragments by their number of writes; the counters must not change in the meantime
+    public void setFragmentSizes(PrefixCounters counters) {
+        long[] sizes = new long[32];
+        int[] largest = {0};
+        counters.forEach((hash, count, written) -> {
+            if (written > 0) {
+                int bucket = 31 - Integer.numberOfLeadingZeros(written);
+                sizes[bucket] += 1;
+                largest[0] = Math.max(largest[0], bucket + 1);
+            }
+        });
+        long[] result = new long[largest[0]];
+        System.arraycopy(sizes, 0, result, 0, result.length);
+        this.fragmentSizes = result;
+    }
+
+    // buckets the fragments by the bytes of data that were written to them, and finds the percentiles
+    public void setFragmentBytes(PrefixCounters sizes) {
+        int[] all = new int[sizes.size()];
+        int[] count = {0};
+        sizes.forEach((hash, ignored, bytes) -> {
+            if (bytes > 0) {
+                all[count[0]++] = bytes;
+            }
+        });
+        int[] sorted = Arrays.copyOf(all, count[0]);
+        Arrays.sort(sorted);
+
+        long[] buckets = new long[32];
+        int largest = 0;
+        for (int bytes : sorted) {
+            int bucket = 31 - Integer.numberOfLeadingZeros(bytes);
+            buckets[bucket] += 1;
+            largest = Math.max(largest, bucket + 1);
+        }
+        this.fragmentBytes = Arrays.copyOf(buckets, largest);
+        this.fragmentBytesPercentiles = sorted.length == 0 ? new long[4] : new long[]{
+                sorted[(sorted.length - 1) / 2],
+                sorted[(int) ((sorted.length - 1) * 0.9)],
+                sorted[(int) ((sorted.length - 1) * 0.99)],
+                sorted[sorted.length - 1]
+        };
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public String getPhase() {
+        return this.phase < PHASES.length ? PHASES[this.phase] : "done";
+    }
+
+    @Override
+    public synchronized double getElapsedSeconds() {
+        // the last phase ended when the task was done
+        long end = this.phase < PHASES.length ? System.nanoTime() : this.phaseStarted;
+        return seconds(end - this.started);
+    }
+
+    @Override
+    public long getTriples() {
+        return this.triples.sum();
+    }
+
+    @Override
+    public double getTriplesPerSecond() {
+        double parseSeconds = this.getParseSeconds();
+        return parseSeconds > 0 ? this.getTriples() / parseSeconds : 0;
+    }
+
+    @Override
+    public long getBlocks() {
+        return this.blocks.sum();
+    }
+
+    @Override
+    public long getSubstrings() {
+        return this.substrings.sum();
+    }
+
+    @Override
+    public long getFragmentWrites() {
+        return this.fragmentWrites.sum();
+    }
+
+    @Override
+    public long getFilesCompleted() {
+        return this.filesCompleted.sum();
+    }
+
+    @Override
+    public long getHandleOpens() {
+        return this.handleOpens.sum();
+    }
+
+    @Override
+    public long getHandleEvictions() {
+        return this.handleEvictions.sum();
+    }
+
+    @Override
+    public long getNormalizedValues() {
+        return this.normalized.sum();
+    }
+
+    @Override
+    public long getNormalizedAscii() {
+        return this.normalizedAscii.sum();
+    }
+
+    @Override
+    public long getNormalizeCacheHits() {
+        return this.normalizedCached.sum();
+    }
+
+    @Override
+    public double getParseSeconds() {
+        return this.phaseSeconds(0);
+    }
+
+    @Override
+    public double getSelectionSeconds() {
+        return seconds(this.selectionNanos.sum());
+    }
+
+    @Override
+    public double getWriteSeconds() {
+        return seconds(this.writeNanos.sum());
+    }
+
+    @Override
+    public double getHypermediaSeconds() {
+        return this.phaseSeconds(1);
+    }
+
+    @Override
+    public double getFinishingSeconds() {
+        return this.phaseSeconds(2);
+    }
+
+    @Override
+    public long[] getFragmentSizes() {
+        return this.fragmentSizes.clone();
+    }
+
+    @Override
+    public long[] getFragmentBytes() {
+        return this.fragmentBytes.clone();
+    }
+
+    @Override
+    public long getHeapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // the highest heap usage of the whole process so far, summed over all heap pools
+    public static long getHeapPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    // the time spent in a phase, up to now if it's the current one
+    protected synchronized double phaseSeconds(int phase) {
+        if (phase == this.phase) {
+            return seconds(System.nanoTime() - this.phaseStarted);
+        }
+        return seconds(this.phaseNanos[phase]);
+    }
+
+    // everything at once, for the progress file
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("name", this.name);
+        result.put("phase", this.getPhase());
+        result.put("elapsedSeconds", round(this.getElapsedSeconds()));
+        result.put("triples", this.getTriples());
+        result.put("triplesPerSecond", round(this.getTriplesPerSecond()));
+        result.put("blocks", this.getBlocks());
+        result.put("substrings", this.getSubstrings());
+        result.put("fragmentWrites", this.getFragmentWrites());
+        result.put("filesCompleted", this.getFilesCompleted());
+        result.put("handleOpens", this.getHandleOpens());
+        result.put("handleEvictions", this.getHandleEvictions());
+        result.put("normalizedValues", this.getNormalizedValues());
+        result.put("normalizedAscii", this.getNormalizedAscii());
+        result.put("normalizeCacheHits", this.getNormalizeCacheHits());
+
+        Map<String, Object> seconds = new LinkedHashMap<>();
+        seconds.put("parse", round(this.getParseSeconds()));
+        seconds.put("selection", round(this.getSelectionSeconds()));
+        seconds.put("writes", round(this.getWriteSeconds()));
+        seconds.put("hypermedia", round(this.getHypermediaSeconds()));
+        seconds.put("finishing", round(this.getFinishingSeconds()));
+        result.put("seconds", seconds);
+
+        Map<String, Long> sizes = new LinkedHashMap<>();
+        long[] fragmentSizes = this.fragmentSizes;
+        for (int i = 0; i < fragmentSizes.length; i++) {
+            sizes.put(bucket(i), fragmentSizes[i]);
+        }
+        result.put("fragmentSizes", sizes);
+
+        Map<String, Long> bytes = new LinkedHashMap<>();
+        long[] fragmentBytes = this.fragmentBytes;
+        for (int i = 0; i < fragmentBytes.length; i++) {
+            bytes.put(bucket(i), fragmentBytes[i]);
+        }
+        result.put("fragmentBytes", bytes);
+        long[] percentiles = this.fragmentBytesPercentiles;
+        result.put("fragmentBytesP50", percentiles[0]);
+        result.put("fragmentBytesP90", percentiles[1]);
+        result.put("fragmentBytesP99", percentiles[2]);
+        result.put("fragmentBytesMax", percentiles[3]);
+        return result;
+    }
+
+    public String summary() {
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("Metrics: %d triples (%.0f/s), %d subject blocks, %d substrings evaluated, %d fragment writes, %d files",
+                this.getTriples(), this.getTriplesPerSecond(), this.getBlocks(), this.getSubstrings(),
+                this.getFragmentWrites(), this.getFilesCompleted()));
+        if (this.getHandleOpens() > 0) {
+            result.append(String.format(", %d handle opens, %d evictions", this.getHandleOpens(), this.getHandleEvictions()));
+        }
+        long normalized = this.getNormalizedValues();
+        long ascii = this.getNormalizedAscii();
+        result.append(String.format("%nNormalization: %d values, %.1f%% ASCII, %.1f%% of the others cached",
+                normalized, percentage(ascii, normalized), percentage(this.getNormalizeCacheHits(), normalized - ascii)));
+        result.append(String.format("%nPhases: parse %.1fs (selection %.1fs, writes %.1fs), hypermedia %.1fs, finishing %.1fs",
+                this.getParseSeconds(), this.getSelectionSeconds(), this.getWriteSeconds(),
+                this.getHypermediaSeconds(), this.getFinishingSeconds()));
+
+        result.append("\nFragment writes:");
+        long[] fragmentSizes = this.fragmentSizes;
+        for (int i = 0; i < fragmentSizes.length; i++) {
+            result.append(i == 0 ? " " : ", ").append(bucket(i)).append(": ").append(fragmentSizes[i]);
+        }
+        long[] percentiles = this.fragmentBytesPercentiles;
+        result.append(String.format("%nFragment bytes (p50 %d, p90 %d, p99 %d, max %d):",
+                percentiles[0], percentiles[1], percentiles[2], percentiles[3]));
+        long[] fragmentBytes = this.fragmentBytes;
+        for (int i = 0; i < fragmentBytes.length; i++) {
+            result.append(i == 0 ? " " : ", ").append(bucket(i)).append(": ").append(fragmentBytes[i]);
+        }
+        result.append(String.format("%nHeap: %d MB used, %d MB at most so far",
+                this.getHeapUsed() / (1024 * 1024), getHeapPeak() / (1024 * 1024)));
+        return result.toString();
+    }
+
+    protected static String bucket(int i) {
+        long low = 1L << i;
+        long high = (1L << (i + 1)) - 1;
+        return low == high ? Long.toString(low) : low + "-" + high;
+    }
+
+    protected static double percentage(long part, long whole) {
+        return whole > 0 ? 100.0 * part / whole : 0;
+    }
+
+    protected static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    protected static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+}
@@ -0,0 +1,52 @@
+package main.java;
+
+// the attributes of a running task, as they're exposed through JMX
+// times are in seconds; selection and write times are summed over all threads that do that work
+public interface TaskMetricsMBean {
+    String getName();
+
+    String getPhase();
+
+    double getElapsedSeconds();
+
+    long getTriples();
+
+    double getTriplesPerSecond();
+
+    long getBlocks();
+
+    long getSubstrings();
+
+    long getFragmentWrites();
+
+    long getFilesCompleted();
+
+    long getHandleOpens();
+
+    long getHandleEvictions();
+
+    // values that were normalized, those that took the ASCII fast path, and those of the others that were cached
+    long getNormalizedValues();
+
+    long getNormalizedAscii();
+
+    long getNormalizeCacheHits();
+
+    double getParseSeconds();
+
+    double getSelectionSeconds();
+
+    double getWriteSeconds();
+
+    double getHypermediaSeconds();
+
+    double getFinishingSeconds();
+
+    // entry i is the number of fragments with 2^i to 2^(i+1) - 1 writes, empty until the input is parsed
+    long[] getFragmentSizes();
+
+    // the same, by the bytes of data that were written to each fragment (without their hypermedia controls)
+    long[] getFragmentBytes();
+
+    long getHeapUsed();
+}
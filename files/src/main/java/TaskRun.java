@@ -0,0 +1,257 @@
+package main.java;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.ResourceFactory;
+
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// everything that's needed to fragment one dataset
+// the sink is fed by a parser, which may be shared with other tasks that read the same input
+class TaskRun {
+    protected final Config config;
+    protected final ConfigTask task;
+    protected final String extension;
+    protected final Path outDirPath;
+    protected final List<Node> properties;
+    protected final Hasher hasher;
+    protected final PrefixCounters counters;
+    protected final FragmentCapacity capacity;
+    @Nullable
+    protected final FragmentIndex index;
+    @Nullable
+    protected final GzipSidecars sidecars;
+    @Nullable
+    protected final FragmentArchive archive;
+    @Nullable
+    protected final Generations generations;    // only for staged runs
+    protected final Consumer<Path> completed;
+    protected final double plan;        // the sample that's planned, 0 for a real run
+    protected final TaskMetrics metrics;
+    protected final FragmentSink fragmenter;
+
+    TaskRun(
+            Config config,      // settings shared by all tasks
+            ConfigTask task,    // description of the source data, and what to do with it
+            Budget handles,     // shared by all tasks that run at the same time
+            Budget memory,
+            DirectoryRemover remover,   // removes previous output in the background
+            boolean resume,     // the output is kept, to continue from a checkpoint
+            double plan         // if positive, only plans the fragments of this fraction of the subjects, without any output
+    ) throws IOException {
+        this.config = config;
+        this.task = task;
+        this.plan = plan;
+        this.metrics = new TaskMetrics(task.name);
+        this.metrics.register();
+        this.extension = task.extension == null ? ".ttl" : task.extension;
+
+        // prepare the output directory; staged runs write a new generation next to the one that's served
+        Path linkPath = Path.of(config.outDir, task.name);
+        this.generations = config.stagedPublish && plan <= 0 ? new Generations(linkPath, remover) : null;
+        this.outDirPath = this.generations != null ? this.generations.getStaging() : linkPath;
+
+        // incremental runs keep the previous fragments, if they were made with the same settings
+        Path indexPath = Path.of(config.outDir, "." + task.name + ".fragments");
+        if (!task.incremental || plan > 0) {
+            this.index = null;
+        } else if (this.generations != null) {
+            // the manifest has to be that of the generation that's served, unchanged files are linked from there
+            String signature = signature(config, task);
+            String previous = this.generations.getPublishedGeneration();
+            this.index = FragmentIndex.load(
+                    indexPath,
+                    signature + " generation " + this.generations.getStagingGeneration(),
+                    this.generations.getPublished() == null ? null : signature + (previous == null ? "" : " generation " + previous),
+                    this.generations.getPublished()
+            );
+        } else {
+            this.index = FragmentIndex.load(indexPath, signature(config, task));
+        }
+        if (this.generations != null) {
+            this.generations.prepare(resume);
+        } else if (plan <= 0) {
+            if (!resume && (this.index == null || this.index.isEmpty())) {
+                Generations.clear(this.outDirPath, remover);
+            }
+            Files.createDirectories(this.outDirPath);
+        }
+
+        // convert the given properties to Property objects
+        this.properties = new ArrayList<>();
+        for (String property : task.properties) {
+            Property property1 = ResourceFactory.createProperty(property);
+            Node asNode = property1.asNode();
+            this.properties.add(asNode);
+        }
+
+        // all data is sent through a FragmentSink
+        // which will pipe the triples to multiple fragment files
+        this.hasher = new Hasher(config.auditHashes);
+        this.capacity = plan > 0 ? FragmentCapacity.create(task, Math.min(1, plan)) : FragmentCapacity.create(task);
+        this.counters = "sketch".equals(task.counters)
+                ? new SketchCounters(SketchCounters.memory(task) - SketchCounters.memory(task) / 4, this.capacity.getSubjects())
+                : LongCounterTable.create(task.counters);
+        // an archive compresses its fragments itself
+        this.archive = "archive".equals(task.output) && plan <= 0 ? new FragmentArchive(this.outDirPath, config.gzip) : null;
+        this.sidecars = config.gzip && this.archive == null && plan <= 0 ? new GzipSidecars(config.threads) : null;
+        this.completed = path -> {
+            this.metrics.addFileCompleted();
+            if (this.sidecars != null) {
+                this.sidecars.add(path);
+            }
+        };
+        String outputMode = plan > 0 ? "plan" : task.incremental && task.output == null ? "sorted" : task.output;
+        FragmentOutput.Factory outputs = () -> FragmentOutput.create(
+                outputMode,
+                this.outDirPath,
+                this.extension,
+                handles,
+                memory,
+                this.completed,
+                this.index,
+                this.archive,
+                this.metrics
+        );
+
+        if (config.threads > 1) {
+            this.fragmenter = new PipelinedFragmentSink(this.properties, outputs, this.outDirPath, this.hasher, this.extension, this.counters, this.capacity, this.metrics, config.threads);
+        } else {
+            this.fragmenter = new FragmentSink(this.properties, outputs, this.outDirPath, this.hasher, this.extension, this.counters, this.capacity, this.metrics);
+        }
+        if (plan > 0) {
+            this.fragmenter.setSample(plan);
+        }
+    }
+
+    public FragmentSink getSink() {
+        return this.fragmenter;
+    }
+
+    public TaskMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    // reports what the fragments would look like; split fragments would get hypermedia controls
+    protected void finishPlan() {
+        byte[] controls = new byte[0];
+        this.fragmenter.close(hash -> this.capacity.isSplit(hash, this.counters) ? controls : null);
+        List<PlanOutput> outputs = new ArrayList<>();
+        for (FragmentOutput output : this.fragmenter.getOutputs()) {
+            outputs.add((PlanOutput) output);
+        }
+        System.out.println(PlanOutput.report(outputs, this.counters, this.capacity, this.extension, Math.min(1, this.plan)));
+
+        this.counters.close();
+        this.fragmenter.getChildIndex().close();
+        this.capacity.close();
+        this.metrics.nextPhase();
+        this.metrics.nextPhase();
+        System.out.println(this.metrics.summary());
+    }
+
+    // the settings besides the input that determine the output
+    public static String signature(Config config, ConfigTask task) {
+        String extension = task.extension == null ? ".ttl" : task.extension;
+        return config.domain + " " + task.name + " " + extension + " " + String.join(" ", task.properties)
+                + (config.gzip ? " gzip" : "")
+                + (task.capacity > 0 ? " capacity " + task.capacity : "")
+                + (task.capacityBytes > 0 ? " capacityBytes " + task.capacityBytes : "")
+                + ("sketch".equals(task.counters) ? " sketch " + task.sketchMemory : "");
+    }
+
+    public void checkpoint(DataOutputStream out) throws IOException {
+        this.fragmenter.checkpoint(out);
+    }
+
+    // restores the sink, and removes the files that were made after the checkpoint
+    public void resume(DataInputStream in) throws IOException {
+        Set<String> names = new HashSet<>(this.fragmenter.resume(in));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.outDirPath)) {
+            for (Path file : files) {
+                if (!names.contains(file.getFileName().toString())) {
+                    Main.deleteDirectoryRecursive(file);
+                }
+            }
+        }
+    }
+
+    // serves the output of a staged run, once no checkpoint refers to it anymore
+    public void publish() throws IOException {
+        if (this.generations != null) {
+            this.generations.publish();
+            System.out.println("Published " + this.task.name + ": " + this.generations.getStagingGeneration());
+        }
+    }
+
+    // to be called once the input has been parsed
+    public void finish() throws IOException {
+        // we now know which fragments actually exist in the dataset
+        // so now is the time to create links between them
+        System.out.println("Finalizing " + this.task.name);
+        this.metrics.nextPhase();
+        this.metrics.setFragmentSizes(this.counters);
+        this.metrics.setFragmentBytes(this.capacity.getSizes());
+        if (this.plan > 0) {
+            this.finishPlan();
+            return;
+        }
+        HypermediaControls controls = new HypermediaControls(
+                this.properties,
+                this.counters,
+                this.capacity,
+                this.fragmenter.getChildIndex(),
+                this.hasher,
+                this.outDirPath,
+                this.fragmenter.getCharSet(),
+                this.extension,
+                this.config.threads
+        );
+        URI domain = URI.create(this.config.domain); // root URI used to identify all the fragments
+        controls.addHypermedia(domain.toASCIIString() + "/" + this.task.name + "/");
+        if (this.counters instanceof SketchCounters) {
+            System.out.println("Sketch: " + ((SketchCounters) this.counters).summary());
+            System.out.println("Sketch of the sizes: " + ((SketchCounters) this.capacity.getSizes()).summary());
+        }
+        this.metrics.nextPhase();
+
+        // every fragment file is completed in one go, its controls following its data
+        this.fragmenter.close(controls::take);
+        if (this.archive != null) {
+            controls.writeRemaining((filePath, data) -> this.archive.add(filePath.getFileName().toString(), data));
+            this.archive.close();
+            System.out.println("Archive: " + this.archive.summary());
+        } else {
+            controls.writeRemaining((filePath, data) -> {
+                Files.write(filePath, data);
+                this.completed.accept(filePath);
+            });
+        }
+        if (this.index != null) {
+            this.index.removeStale(this.outDirPath);
+            this.index.save();
+            System.out.println("Fragment files: " + this.index.summary());
+        }
+        if (this.sidecars != null) {
+            this.sidecars.finish();
+        }
+        this.counters.close();
+        this.fragmenter.getChildIndex().close();
+        this.capacity.close();
+        this.hasher.report();
+        this.metrics.nextPhase();
+        System.out.println(this.metrics.summary());
+    }
+}
@@ -0,0 +1,179 @@
+package main.java;
+
+import org.apache.jena.riot.system.StreamRDF;
+
+import javax.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// runs the tasks of a config, several at a time if allowed
+// tasks that read the same input are handled together, with one parser feeding all of their sinks
+// the largest inputs go first, so the small ones can fill the gaps at the end
+// all running tasks share one budget of file handles and one of memory
+class TaskScheduler {
+    protected final Config config;
+    protected final Budget handles;
+    protected final Budget memory;
+    @Nullable
+    protected final ProgressFile progress;
+    protected final DirectoryRemover remover;
+    protected double plan; // the sample of the subjects that's planned, 0 for real runs
+
+    TaskScheduler(Config config) {
+        this.config = config;
+        this.handles = new Budget(config.maxFileHandles);
+        this.memory = new Budget((config.writeBuffer > 0 ? config.writeBuffer : 256) * 1024L * 1024L);
+        this.progress = config.progressFile == null
+                ? null
+                : new ProgressFile(Path.of(config.progressFile), config.progressInterval > 0 ? config.progressInterval : 10);
+        this.remover = new DirectoryRemover(config.threads);
+        this.plan = 0;
+    }
+
+    // runs the tasks without writing anything, and reports what their fragments would look like
+    public void plan(ConfigTask[] tasks, double sample) throws IOException {
+        this.plan = sample > 0 ? sample : 1;
+        this.run(tasks);
+    }
+
+    public void run(ConfigTask[] tasks) throws IOException {
+        if (this.plan <= 0) {
+            this.remover.collect(Path.of(this.config.outDir));
+        }
+        if (this.progress != null) {
+            this.progress.start();
+        }
+        try {
+            this.runAll(tasks);
+        } finally {
+            if (this.progress != null) {
+                this.progress.close();
+            }
+            this.remover.finish();
+        }
+    }
+
+    protected void runAll(ConfigTask[] tasks) throws IOException {
+        List<List<ConfigTask>> groups = groupByInput(tasks);
+        if (this.config.parallelTasks <= 1) {
+            for (List<ConfigTask> group : groups) {
+                this.handleGroup(group);
+            }
+            return;
+        }
+
+        TaskLogs logs = TaskLogs.install();
+        ExecutorService executor = Executors.newFixedThreadPool(this.config.parallelTasks);
+        List<Future<?>> futures = new ArrayList<>();
+        for (List<ConfigTask> group : groups) {
+            futures.add(executor.submit(() -> {
+                logs.start();
+                try {
+                    this.handleGroup(group);
+                } finally {
+                    logs.end();
+                }
+                return null;
+            }));
+        }
+        executor.shutdown();
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    // groups the tasks by input files, the largest ones first
+    protected static List<List<ConfigTask>> groupByInput(ConfigTask[] tasks) throws IOException {
+        Map<List<Path>, List<ConfigTask>> groups = new LinkedHashMap<>();
+        Map<List<Path>, Long> sizes = new HashMap<>();
+        for (ConfigTask task : tasks) {
+            List<Path> files = InputFiles.resolve(task);
+            groups.computeIfAbsent(files, input -> new ArrayList<>()).add(task);
+            sizes.put(files, InputFiles.size(files));
+        }
+
+        List<List<Path>> inputs = new ArrayList<>(groups.keySet());
+        inputs.sort(Comparator.comparingLong(input -> -sizes.get(input)));
+        List<List<ConfigTask>> result = new ArrayList<>();
+        for (List<Path> input : inputs) {
+            result.add(groups.get(input));
+        }
+        return result;
+    }
+
+    protected void handleGroup(List<ConfigTask> group) throws IOException {
+        List<Path> files = InputFiles.resolve(group.get(0));
+        System.out.println("Parsing " + (files.size() == 1 ? files.get(0) : files.size() + " files: " + files));
+
+        // long runs can continue from the last checkpoint of the group, if it was made with the same settings and input
+        Checkpoints checkpoints = null;
+        if (this.config.checkpointInterval > 0 && this.plan <= 0) {
+            checkpoints = new Checkpoints(
+                    Path.of(this.config.outDir, "." + group.get(0).name + ".checkpoint"),
+                    Checkpoints.signature(this.config, group, files),
+                    this.config.checkpointInterval
+            );
+        }
+        boolean resume = checkpoints != null && checkpoints.isResumed();
+
+        List<TaskRun> runs = new ArrayList<>();
+        List<FragmentSink> sinks = new ArrayList<>();
+        for (ConfigTask task : group) {
+            TaskRun run = new TaskRun(this.config, task, this.handles, this.memory, this.remover, resume, this.plan);
+            runs.add(run);
+            sinks.add(run.getSink());
+            if (this.progress != null) {
+                this.progress.add(run.getMetrics());
+            }
+        }
+        if (checkpoints != null) {
+            checkpoints.start(runs);
+        }
+
+        try {
+            if (group.stream().anyMatch(task -> task.unsorted)) {
+                // the statements of a subject have to reach the sinks together, so they're grouped on the way
+                long memory = (this.config.groupBuffer > 0 ? this.config.groupBuffer : 256) * 1024L * 1024L;
+                StreamRDF destination = InputFiles.chain(sinks);
+                if (checkpoints != null) {
+                    destination = checkpoints.wrap(destination);
+                }
+                SubjectGrouper grouper = new SubjectGrouper(destination, Path.of(this.config.outDir), memory);
+                InputFiles.parse(files, grouper, this.config.threads);
+            } else {
+                InputFiles.parse(files, sinks, this.config.threads, checkpoints);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        for (TaskRun run : runs) {
+            run.finish();
+        }
+        if (checkpoints != null) {
+            checkpoints.delete();
+        }
+        // staged runs are served once their checkpoint is gone, so an interruption before this starts them over
+        for (TaskRun run : runs) {
+            run.publish();
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package main.java;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.riot.RDFParser;
+import org.apache.jena.riot.system.StreamRDFBase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.Deflater;
+
+// replays a log of autocomplete queries on the fragments of a task, the way a TREE substring client walks them
+// every query is typed one char at a time; after each keystroke, the client starts at the root and follows every
+// relation whose values can all be matched to different tokens of what was typed so far, each value being a prefix of its token
+// a fresh client is simulated for every query, which only fetches fragments it hasn't fetched for that query before
+//
+// the latency of a keystroke is modelled as one round trip per level of the walk that fetched anything,
+// plus the time to transfer the (compressed) fragments of the keystroke
+// the fragments are read from the task's directory, or from its archive
+class TraversalSimulator {
+    protected static final String RELATION = "https://w3id.org/tree#relation";
+    protected static final String NODE = "https://w3id.org/tree#node";
+    protected static final String VALUE = "https://w3id.org/tree#value";
+    protected static final int GZIP_LEVEL = 5;      // gzip_comp_level in server/nginx.conf, for fragments without a compressed copy
+
+    protected final Path dirPath;
+    protected final FragmentArchive.Reader archive; // null if the fragments are files
+    protected final String rootName;
+    protected final double roundTripMillis;
+    protected final double bytesPerMilli;
+    protected final Map<String, Fragment> fragments; // parsed so far, shared by all queries
+
+    TraversalSimulator(Path dirPath, double roundTripMillis, double megabitsPerSecond) throws IOException {
+        this.dirPath = dirPath;
+        this.archive = FragmentArchive.exists(dirPath) ? new FragmentArchive.Reader(dirPath) : null;
+        this.roundTripMillis = roundTripMillis;
+        this.bytesPerMilli = megabitsPerSecond * 1e6 / 8 / 1000;
+        this.fragments = new HashMap<>();
+
+        String rootName = null;
+        for (String extension : List.of(".nt", ".ttl", ".trig")) {
+            if (this.exists(".root" + extension)) {
+                rootName = ".root" + extension;
+                break;
+            }
+        }
+        if (rootName == null) {
+            throw new IOException("No root fragment in " + dirPath);
+        }
+        this.rootName = rootName;
+    }
+
+    public static void run(Path dirPath, Path queryLog, double roundTripMillis, double megabitsPerSecond) throws IOException {
+        TraversalSimulator simulator = new TraversalSimulator(dirPath, roundTripMillis, megabitsPerSecond);
+        List<Query> queries = new ArrayList<>();
+        List<Double> keystrokeMillis = new ArrayList<>();
+
+        System.out.println("query\tkeystrokes\thops\tfetched\tbytes\tgzip bytes\tmillis\tslowest keystroke millis");
+        for (String line : Files.readAllLines(queryLog)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            Query query = simulator.replay(line.strip());
+            queries.add(query);
+            keystrokeMillis.addAll(query.keystrokeMillis);
+            System.out.println(query);
+        }
+        System.out.println(summary(queries, keystrokeMillis));
+    }
+
+    // types the query char by char
+    public Query replay(String text) throws IOException {
+        Query query = new Query(text);
+        Set<String> fetched = new HashSet<>();
+        for (int i = 1; i <= text.length(); i++) {
+            if (Character.isWhitespace(text.charAt(i - 1))) {
+                continue; // a client only looks again once there's something new to look for
+            }
+            List<String> tokens = tokens(FragmentSink.normalize(text.substring(0, i)));
+            double millis = 0;
+
+            // breadth first, every level costs a round trip if it has to fetch anything
+            List<String> level = List.of(this.rootName);
+            Set<String> visited = new HashSet<>(level);
+            int depth = 0;
+            while (!level.isEmpty()) {
+                long levelBytes = 0;
+                boolean levelFetched = false;
+                List<String> next = new ArrayList<>();
+                for (String name : level) {
+                    Fragment fragment = this.fragment(name);
+                    if (fetched.add(name)) {
+                        levelFetched = true;
+                        levelBytes += fragment.gzipBytes;
+                        query.fetched += 1;
+                        query.bytes += fragment.bytes;
+                        query.gzipBytes += fragment.gzipBytes;
+                    }
+                    for (Relation relation : fragment.relations) {
+                        if (matches(relation.values, tokens) && visited.add(relation.node)) {
+                            next.add(relation.node);
+                        }
+                    }
+                }
+                if (levelFetched) {
+                    millis += this.roundTripMillis + levelBytes / this.bytesPerMilli;
+                }
+                query.hops = Math.max(query.hops, depth);
+                level = next;
+                depth += 1;
+            }
+            query.keystrokeMillis.add(millis);
+        }
+        return query;
+    }
+
+    // whether every value is a prefix of a different token
+    protected static boolean matches(List<String> values, List<String> tokens) {
+        return matches(values, 0, tokens, new boolean[tokens.size()]);
+    }
+
+    protected static boolean matches(List<String> values, int index, List<String> tokens, boolean[] used) {
+        if (index == values.size()) {
+            return true;
+        }
+        for (int t = 0; t < tokens.size(); t++) {
+            if (!used[t] && tokens.get(t).startsWith(values.get(index))) {
+                used[t] = true;
+                if (matches(values, index + 1, tokens, used)) {
+                    return true;
+                }
+                used[t] = false;
+            }
+        }
+        return false;
+    }
+
+    // letters and digits, like the tokens of the fragments
+    protected static List<String> tokens(String normalized) {
+        List<String> result = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean tokenChar = i < normalized.length()
+                    && (Character.isLetter(normalized.charAt(i)) || Character.isDigit(normalized.charAt(i)));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                result.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    protected boolean exists(String name) {
+        if (this.archive != null) {
+            return this.archive.get(name, false) != null;
+        }
+        return Files.exists(this.dirPath.resolve(name));
+    }
+
+    protected Fragment fragment(String name) throws IOException {
+        Fragment fragment = this.fragments.get(name);
+        if (fragment != null) {
+            return fragment;
+        }
+
+        byte[] data;
+        long gzipBytes = -1;
+        if (this.archive != null) {
+            FragmentArchive.Fragment plain = this.archive.get(name, false);
+            data = plain == null ? null : bytes(plain.data);
+            FragmentArchive.Fragment compressed = this.archive.get(name, true);
+            if (compressed != null && compressed.gzip) {
+                gzipBytes = compressed.data.remaining();
+            }
+        } else {
+            Path filePath = this.dirPath.resolve(name);
+            data = Files.exists(filePath) ? Files.readAllBytes(filePath) : null;
+            Path gzipPath = filePath.resolveSibling(name + ".gz");
+            if (Files.exists(gzipPath)) {
+                gzipBytes = Files.size(gzipPath);
+            }
+        }
+
+        if (data == null) {
+            // a dangling link costs a round trip, but has no data
+            fragment = new Fragment(0, 0, List.of());
+        } else {
+            if (gzipBytes < 0) {
+                gzipBytes = data.length < GzipSidecars.MIN_LENGTH ? data.length : compressedSize(data);
+            }
+            fragment = new Fragment(data.length, gzipBytes, relations(name, data));
+        }
+        this.fragments.put(name, fragment);
+        return fragment;
+    }
+
+    protected static byte[] bytes(ByteBuffer buffer) {
+        byte[] result = new byte[buffer.remaining()];
+        buffer.duplicate().get(result);
+        return result;
+    }
+
+    // the size of the data as nginx would compress it on the fly: a deflate stream, and 18 bytes of gzip header and trailer
+    protected static long compressedSize(byte[] data) {
+        Deflater deflater = new Deflater(GZIP_LEVEL, true);
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[1 << 16];
+        long size = 18;
+        while (!deflater.finished()) {
+            size += deflater.deflate(buffer);
+        }
+        deflater.end();
+        return size;
+    }
+
+    // the relations of a fragment, with the names of the fragments they point to
+    protected static List<Relation> relations(String name, byte[] data) {
+        Map<Node, String> nodes = new HashMap<>();
+        Map<Node, List<String>> values = new LinkedHashMap<>();
+        RDFParser.source(new ByteArrayInputStream(data))
+                .lang(FragmentOutput.lang(name.substring(name.lastIndexOf('.'))))
+                .parse(new StreamRDFBase() {
+                    @Override
+                    public void triple(Triple triple) {
+                        String predicate = triple.getPredicate().getURI();
+                        if (predicate.equals(RELATION)) {
+                            values.computeIfAbsent(triple.getObject(), relation -> new ArrayList<>());
+                        } else if (predicate.equals(NODE)) {
+                            String uri = triple.getObject().getURI();
+                            nodes.put(triple.getSubject(), uri.substring(uri.lastIndexOf('/') + 1));
+                        } else if (predicate.equals(VALUE)) {
+                            values.computeIfAbsent(triple.getSubject(), relation -> new ArrayList<>())
+                                    .add(triple.getObject().getLiteralLexicalForm());
+                        }
+                    }
+                });
+
+        List<Relation> result = new ArrayList<>();
+        for (Map.Entry<Node, List<String>> entry : values.entrySet()) {
+            String node = nodes.get(entry.getKey());
+            if (node != null) {
+                result.add(new Relation(node, entry.getValue()));
+            }
+        }
+        return result;
+    }
+
+    protected static String summary(List<Query> queries, List<Double> keystrokeMillis) {
+        long keystrokes = keystrokeMillis.size();
+        long hops = 0;
+        long fetched = 0;
+        long bytes = 0;
+        long gzipBytes = 0;
+        List<Double> queryMillis = new ArrayList<>();
+        for (Query query : queries) {
+            hops += query.hops;
+            fetched += query.fetched;
+            bytes += query.bytes;
+            gzipBytes += query.gzipBytes;
+            queryMillis.add(query.millis());
+        }
+        int count = Math.max(1, queries.size());
+        return String.format("Queries: %d (%d keystrokes), %.1f hops, %.1f fragments, %d bytes (%d gzipped) on average%n"
+                        + "Keystroke latency: p50 %.1f ms, p99 %.1f ms; query latency: p50 %.1f ms, p99 %.1f ms",
+                queries.size(), keystrokes, (double) hops / count, (double) fetched / count, bytes / count, gzipBytes / count,
+                percentile(keystrokeMillis, 50), percentile(keystrokeMillis, 99),
+                percentile(queryMillis, 50), percentile(queryMillis, 99));
+    }
+
+    // nearest rank
+    protected static double percentile(List<Double> values, int percentile) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        List<Double> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+
+    static class Fragment {
+        final long bytes;
+        final long gzipBytes;
+        final List<Relation> relations;
+
+        Fragment(long bytes, long gzipBytes, List<Relation> relations) {
+            this.bytes = bytes;
+            this.gzipBytes = gzipBytes;
+            this.relations = relations;
+        }
+    }
+
+    static class Relation {
+        final String node;
+        final List<String> values;
+
+        Relation(String node, List<String> values) {
+            this.node = node;
+            this.values = values;
+        }
+    }
+
+    static class Query {
+        final String text;
+        final List<Double> keystrokeMillis;
+        int hops;
+        int fetched;
+        long bytes;
+        long gzipBytes;
+
+        Query(String text) {
+            this.text = text;
+            this.keystrokeMillis = new ArrayList<>();
+        }
+
+        double millis() {
+            double result = 0;
+            for (double millis : this.keystrokeMillis) {
+                result += millis;
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            double slowest = 0;
+            for (double millis : this.keystrokeMillis) {
+                slowest = Math.max(slowest, millis);
+            }
+            return String.format("%s\t%d\t%d\t%d\t%d\t%d\t%.1f\t%.1f", this.text, this.keystrokeMillis.size(), this.hops,
+                    this.fetched, this.bytes, this.gzipBytes, this.millis(), slowest);
+        }
+    }
+}
@@ -5,6 +5,8 @@ import org.apache.jena.sparql.core.Quad;
 
 import java.util.*;
 
+// the statements of one subject, in the order they were parsed (duplicates are dropped)
+// the order is kept so a block's values and serialization don't depend on hash codes, only on the input
 class TripleBuffer {
     protected final String subject;
     protected final Set<Triple> triples;
@@ -12,8 +14,8 @@ class TripleBuffer {
 
     TripleBuffer(String subject) {
         this.subject = subject;
-        this.triples = new HashSet<>();
-        this.quads = new HashSet<>();
+        this.triples = new LinkedHashSet<>();
+        this.quads = new LinkedHashSet<>();
     }
 
     public void addTriple(Triple triple) {
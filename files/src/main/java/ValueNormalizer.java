@@ -0,0 +1,73 @@
+package main.java;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// normalizes values the way FragmentSink.normalize does, with the same results, but faster for the values that dumps are full of
+// - ASCII values don't change under NFKD, so they're only lowercased, and returned as they are if there's nothing to lowercase
+// - the other values repeat a lot (place names, altLabels, ...), so each thread keeps the most recent ones in a small LRU cache
+class ValueNormalizer {
+    protected static final int CACHE_SIZE = 4096; // values per thread
+
+    // Turkish and Azeri lowercase the ASCII I to a dotless i, those have to take the long way
+    protected static final boolean ASCII_LOWERCASE = !Locale.getDefault().getLanguage().equals("tr")
+            && !Locale.getDefault().getLanguage().equals("az");
+
+    protected final TaskMetrics metrics;
+    protected final ThreadLocal<Map<String, String>> caches;
+
+    ValueNormalizer(TaskMetrics metrics) {
+        this.metrics = metrics;
+        this.caches = ThreadLocal.withInitial(() -> new LinkedHashMap<>(2 * CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return this.size() > CACHE_SIZE;
+            }
+        });
+    }
+
+    // can be called by several threads at the same time
+    public String normalize(String value) {
+        String ascii = asciiLowerCase(value);
+        if (ascii != null) {
+            this.metrics.addNormalized(true, false);
+            return ascii;
+        }
+
+        Map<String, String> cache = this.caches.get();
+        String result = cache.get(value);
+        if (result != null) {
+            this.metrics.addNormalized(false, true);
+            return result;
+        }
+        result = FragmentSink.normalize(value);
+        cache.put(value, result);
+        this.metrics.addNormalized(false, false);
+        return result;
+    }
+
+    // the lowercased value if it's pure ASCII, null otherwise
+    protected static String asciiLowerCase(String value) {
+        boolean upper = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                return null;
+            }
+            upper |= c >= 'A' && c <= 'Z';
+        }
+        if (!upper) {
+            return value;
+        } else if (!ASCII_LOWERCASE) {
+            return null;
+        }
+
+        char[] chars = new char[value.length()];
+        for (int i = 0; i < chars.length; i++) {
+            char c = value.charAt(i);
+            chars[i] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        return new String(chars);
+    }
+}